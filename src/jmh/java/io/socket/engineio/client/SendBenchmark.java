@@ -0,0 +1,136 @@
+package io.socket.engineio.client;
+
+import io.socket.engineio.client.transports.WebSocket;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends from concurrent producers through an open socket whose WebSocket is an in-memory stub,
+ * so the throughput is the one of the send path: enqueueing, the event thread and encoding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SendBenchmark {
+
+    /**
+     * {@link Socket.Options#coalesceDelay}, in microseconds.
+     */
+    @Param({"0", "100"})
+    public long coalesceDelay;
+
+    /**
+     * Whether messages are appended to a {@link Journal} in a temporary directory.
+     */
+    @Param({"false", "true"})
+    public boolean journal;
+
+    private Socket socket;
+    private Journal messageJournal;
+    private final LongAdder sent = new LongAdder();
+
+    @Setup
+    public void setup() throws InterruptedException, IOException {
+        Socket.Options opts = new Socket.Options();
+        opts.transports = new String[] {WebSocket.NAME};
+        opts.webSocketFactory = (request, listener) -> new StubWebSocket(request, listener);
+        opts.coalesceDelay = this.coalesceDelay;
+        if (this.journal) {
+            this.messageJournal = new Journal(Files.createTempDirectory("journal").toFile());
+            opts.journal = this.messageJournal;
+        }
+
+        final CountDownLatch open = new CountDownLatch(1);
+        this.socket = new Socket(opts);
+        this.socket.on(Socket.EVENT_OPEN, args -> open.countDown());
+        this.socket.open();
+        open.await();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.socket.close();
+        if (this.messageJournal != null) {
+            this.messageJournal.close();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void send1Producer() {
+        this.socket.send("message");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void send4Producers() {
+        this.socket.send("message");
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void send32Producers() {
+        this.socket.send("message");
+    }
+
+    private class StubWebSocket implements okhttp3.WebSocket {
+
+        private final Request request;
+
+        StubWebSocket(Request request, WebSocketListener listener) {
+            this.request = request;
+            Response response = new Response.Builder()
+                    .request(request)
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(101)
+                    .message("Switching Protocols")
+                    .build();
+            listener.onOpen(this, response);
+            listener.onMessage(this, "0{\"sid\":\"sid\",\"upgrades\":[],\"pingInterval\":3600000,\"pingTimeout\":3600000}");
+        }
+
+        @Override
+        public Request request() {
+            return this.request;
+        }
+
+        @Override
+        public long queueSize() {
+            return 0;
+        }
+
+        @Override
+        public boolean send(String text) {
+            SendBenchmark.this.sent.increment();
+            return true;
+        }
+
+        @Override
+        public boolean send(ByteString bytes) {
+            SendBenchmark.this.sent.increment();
+            return true;
+        }
+
+        @Override
+        public boolean close(int code, String reason) {
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package io.socket.engineio.parser;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single packet encoding and decoding.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketBenchmark {
+
+    @Param({"16", "1024", "65536"})
+    public int messageSize;
+
+    private Packet<String> textPacket;
+    private Packet<byte[]> binaryPacket;
+    private String encodedText;
+    private String encodedBase64;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(this.messageSize);
+        for (int i = 0; i < this.messageSize; i++) {
+            text.append((char) ('a' + random.nextInt(26)));
+        }
+        byte[] binary = new byte[this.messageSize];
+        random.nextBytes(binary);
+
+        this.textPacket = new Packet<>(Packet.MESSAGE, text.toString());
+        this.binaryPacket = new Packet<>(Packet.MESSAGE, binary);
+        this.encodedText = "4" + text;
+        this.encodedBase64 = "b" + Base64.getEncoder().encodeToString(binary);
+    }
+
+    @Benchmark
+    public void encodeTextPacket(Blackhole bh) {
+        Parser.encodePacket(this.textPacket, bh::consume);
+    }
+
+    @Benchmark
+    public void encodeBinaryPacket(Blackhole bh) {
+        Parser.encodePacket(this.binaryPacket, bh::consume);
+    }
+
+    @Benchmark
+    public Packet decodeTextPacket() {
+        return Parser.decodePacket(this.encodedText);
+    }
+
+    @Benchmark
+    public Packet decodeBinaryPacket() {
+        return Parser.decodePacket(this.binaryPacket.data);
+    }
+
+    @Benchmark
+    public Packet decodeBase64Packet() {
+        return Parser.decodeBase64Packet(this.encodedBase64);
+    }
+}
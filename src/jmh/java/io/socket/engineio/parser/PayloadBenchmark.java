@@ -0,0 +1,91 @@
+package io.socket.engineio.parser;
+
+import okio.Buffer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polling payload encoding and decoding, across batch sizes and text/binary mixes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadBenchmark {
+
+    @Param({"16", "1024", "65536"})
+    public int messageSize;
+
+    @Param({"1", "16", "256"})
+    public int batchSize;
+
+    /**
+     * Percentage of binary packets in the batch.
+     */
+    @Param({"0", "50", "100"})
+    public int binaryPercent;
+
+    private Packet[] packets;
+    private String encoded;
+    private byte[] encodedBytes;
+    private final Buffer buffer = new Buffer();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        this.packets = new Packet[this.batchSize];
+        for (int i = 0; i < this.batchSize; i++) {
+            if (i * 100 < this.binaryPercent * this.batchSize) {
+                byte[] binary = new byte[this.messageSize];
+                random.nextBytes(binary);
+                this.packets[i] = new Packet<>(Packet.MESSAGE, binary);
+            } else {
+                StringBuilder text = new StringBuilder(this.messageSize);
+                for (int j = 0; j < this.messageSize; j++) {
+                    text.append((char) ('a' + random.nextInt(26)));
+                }
+                this.packets[i] = new Packet<>(Packet.MESSAGE, text.toString());
+            }
+        }
+
+        Parser.encodePayload(this.packets, data -> this.encoded = data);
+        this.encodedBytes = this.encoded.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void encodePayload(Blackhole bh) {
+        Parser.encodePayload(this.packets, bh::consume);
+    }
+
+    @Benchmark
+    public long encodePayloadToSink() throws IOException {
+        Parser.encodePayload(this.packets, this.buffer);
+        long size = this.buffer.size();
+        this.buffer.clear();
+        return size;
+    }
+
+    @Benchmark
+    public void decodePayload(Blackhole bh) {
+        Parser.decodePayload(this.encoded, (packet, index, total) -> {
+            bh.consume(packet);
+            return true;
+        });
+    }
+
+    @Benchmark
+    public void decodePayloadFromSource(Blackhole bh) throws IOException {
+        this.buffer.write(this.encodedBytes);
+        Parser.decodePayload(this.buffer, (packet, index, total) -> {
+            bh.consume(packet);
+            return true;
+        });
+    }
+}
@@ -1,9 +1,8 @@
 package io.socket.engineio.client;
 
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.util.ArrayList;
+import java.util.List;
 
 public class HandshakeData {
 
@@ -12,21 +11,254 @@ public class HandshakeData {
     public long pingInterval;
     public long pingTimeout;
 
-    /*package*/ HandshakeData(String data) throws JSONException {
-        this(new JSONObject(data));
+    /**
+     * The maximum number of bytes per chunk the server accepts, or 0 if it did not say.
+     */
+    public long maxPayload;
+
+    /*package*/ HandshakeData(String data) throws EngineIOException {
+        new Reader(data).readHandshake(this);
     }
 
-    /*package*/ HandshakeData(JSONObject data) throws JSONException {
-        JSONArray upgrades = data.getJSONArray("upgrades");
-        int length = upgrades.length();
-        String[] tempUpgrades = new String[length];
-        for (int i = 0; i < length; i ++) {
-            tempUpgrades[i] = upgrades.getString(i);
+    /**
+     * A one-pass reader for the JSON object of the open packet. Only the fields of the handshake
+     * are kept, the values of other fields are skipped.
+     */
+    private static class Reader {
+
+        // the nesting depth of skipped values beyond which the handshake is rejected
+        private static final int MAX_DEPTH = 64;
+
+        private final String data;
+        private int pos;
+
+        Reader(String data) {
+            this.data = data != null ? data : "";
+        }
+
+        void readHandshake(HandshakeData handshake) throws EngineIOException {
+            boolean hasSid = false, hasUpgrades = false, hasPingInterval = false, hasPingTimeout = false;
+
+            this.expect('{');
+            if (!this.consume('}')) {
+                do {
+                    String key = this.readString();
+                    this.expect(':');
+                    switch (key) {
+                        case "sid":
+                            handshake.sid = this.readString();
+                            hasSid = true;
+                            break;
+                        case "upgrades":
+                            handshake.upgrades = this.readStrings();
+                            hasUpgrades = true;
+                            break;
+                        case "pingInterval":
+                            handshake.pingInterval = this.readLong();
+                            hasPingInterval = true;
+                            break;
+                        case "pingTimeout":
+                            handshake.pingTimeout = this.readLong();
+                            hasPingTimeout = true;
+                            break;
+                        case "maxPayload":
+                            handshake.maxPayload = this.readLong();
+                            break;
+                        default:
+                            this.skipValue(0);
+                            break;
+                    }
+                } while (this.consume(','));
+                this.expect('}');
+            }
+            this.skipWhitespace();
+            if (this.pos < this.data.length()) {
+                throw this.error("unexpected data");
+            }
+
+            if (!hasSid) throw new EngineIOException("handshake is missing sid");
+            if (!hasUpgrades) throw new EngineIOException("handshake is missing upgrades");
+            if (!hasPingInterval) throw new EngineIOException("handshake is missing pingInterval");
+            if (!hasPingTimeout) throw new EngineIOException("handshake is missing pingTimeout");
+        }
+
+        private String[] readStrings() throws EngineIOException {
+            this.expect('[');
+            if (this.consume(']')) {
+                return new String[0];
+            }
+            List<String> values = new ArrayList<>(2);
+            do {
+                values.add(this.readString());
+            } while (this.consume(','));
+            this.expect(']');
+            return values.toArray(new String[0]);
+        }
+
+        private String readString() throws EngineIOException {
+            this.expect('"');
+            int start = this.pos;
+            StringBuilder builder = null;
+            while (this.pos < this.data.length()) {
+                char c = this.data.charAt(this.pos++);
+                if (c == '"') {
+                    if (builder == null) {
+                        return this.data.substring(start, this.pos - 1);
+                    }
+                    return builder.append(this.data, start, this.pos - 1).toString();
+                }
+                if (c == '\\') {
+                    if (builder == null) {
+                        builder = new StringBuilder();
+                    }
+                    builder.append(this.data, start, this.pos - 1).append(this.readEscape());
+                    start = this.pos;
+                }
+            }
+            throw this.error("unterminated string");
+        }
+
+        private char readEscape() throws EngineIOException {
+            if (this.pos >= this.data.length()) {
+                throw this.error("unterminated string");
+            }
+            char c = this.data.charAt(this.pos++);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    return c;
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'u':
+                    if (this.pos + 4 <= this.data.length()) {
+                        try {
+                            char value = (char) Integer.parseInt(this.data.substring(this.pos, this.pos + 4), 16);
+                            this.pos += 4;
+                            return value;
+                        } catch (NumberFormatException e) {
+                            // reported below
+                        }
+                    }
+                    throw this.error("invalid unicode escape");
+                default:
+                    throw this.error("invalid escape");
+            }
         }
 
-        this.sid = data.getString("sid");
-        this.upgrades = tempUpgrades;
-        this.pingInterval = data.getLong("pingInterval");
-        this.pingTimeout = data.getLong("pingTimeout");
+        private long readLong() throws EngineIOException {
+            this.skipWhitespace();
+            int start = this.pos;
+            this.skipNumber();
+            String number = this.data.substring(start, this.pos);
+            try {
+                return Long.parseLong(number);
+            } catch (NumberFormatException e) {
+                try {
+                    return (long) Double.parseDouble(number);
+                } catch (NumberFormatException e2) {
+                    throw this.error("invalid number");
+                }
+            }
+        }
+
+        private void skipValue(int depth) throws EngineIOException {
+            this.skipWhitespace();
+            if (this.pos >= this.data.length()) {
+                throw this.error("missing value");
+            }
+            if (depth >= MAX_DEPTH) {
+                throw this.error("too deeply nested");
+            }
+            char c = this.data.charAt(this.pos);
+            switch (c) {
+                case '"':
+                    this.readString();
+                    break;
+                case '{':
+                    this.pos++;
+                    if (!this.consume('}')) {
+                        do {
+                            this.readString();
+                            this.expect(':');
+                            this.skipValue(depth + 1);
+                        } while (this.consume(','));
+                        this.expect('}');
+                    }
+                    break;
+                case '[':
+                    this.pos++;
+                    if (!this.consume(']')) {
+                        do {
+                            this.skipValue(depth + 1);
+                        } while (this.consume(','));
+                        this.expect(']');
+                    }
+                    break;
+                default:
+                    if (this.data.startsWith("true", this.pos)) {
+                        this.pos += 4;
+                    } else if (this.data.startsWith("false", this.pos)) {
+                        this.pos += 5;
+                    } else if (this.data.startsWith("null", this.pos)) {
+                        this.pos += 4;
+                    } else {
+                        int start = this.pos;
+                        this.skipNumber();
+                        if (this.pos == start) {
+                            throw this.error("unexpected character");
+                        }
+                    }
+                    break;
+            }
+        }
+
+        private void skipNumber() {
+            while (this.pos < this.data.length()) {
+                char c = this.data.charAt(this.pos);
+                if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                    this.pos++;
+                } else {
+                    break;
+                }
+            }
+        }
+
+        private boolean consume(char c) {
+            this.skipWhitespace();
+            if (this.pos < this.data.length() && this.data.charAt(this.pos) == c) {
+                this.pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) throws EngineIOException {
+            if (!this.consume(c)) {
+                throw this.error("expected '" + c + "'");
+            }
+        }
+
+        private void skipWhitespace() {
+            while (this.pos < this.data.length()) {
+                char c = this.data.charAt(this.pos);
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                    break;
+                }
+                this.pos++;
+            }
+        }
+
+        private EngineIOException error(String message) {
+            return new EngineIOException("invalid handshake: " + message + " at " + this.pos);
+        }
     }
 }
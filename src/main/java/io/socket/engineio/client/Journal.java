@@ -0,0 +1,414 @@
+package io.socket.engineio.client;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.socket.engineio.parser.BinaryPacket;
+import io.socket.engineio.parser.BufferPacket;
+import io.socket.engineio.parser.Packet;
+import io.socket.engineio.parser.PacketType;
+import io.socket.engineio.parser.PreEncodedPacket;
+import io.socket.engineio.parser.TextPacket;
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * A journal of the messages sent by a socket, set with {@link Socket.Options#journal}, so that the
+ * messages not written yet when the socket closes, or when the process stops, are sent again on
+ * the next successful open of a socket using the journal.
+ * <p>
+ * Messages are appended to memory-mapped segment files of a directory, and are marked done once
+ * written. Segments whose messages are all done are reused. Appended messages are forced to disk
+ * together after a short delay, so that a crash of the system, rather than of the process, may
+ * lose the last of them. A journal is used by one socket at a time, on the event thread.
+ */
+public class Journal implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(Journal.class.getName());
+
+    private static final AtomicInteger SYNC_THREAD_COUNTER = new AtomicInteger();
+
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    // a segment starts with its sequence number, 0 if free
+    private static final int SEGMENT_HEADER = 8;
+    // a record starts with the length of its data plus one and flags, 0 ends the segment
+    private static final int RECORD_HEADER = 5;
+    private static final byte BINARY = 1;
+    private static final byte DONE = 2;
+
+    private final File dir;
+    private final int segmentSize;
+    private final long syncDelay;
+    private final List<Segment> segments = new ArrayList<>();
+    private final Deque<Segment> freeSegments = new ArrayDeque<>();
+    private int pendingCount;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private Segment current;
+    private long sequence;
+    private boolean closed;
+
+    private final AtomicBoolean syncScheduled = new AtomicBoolean();
+    private ScheduledExecutorService syncScheduler;
+
+    public Journal(File dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SIZE, 10);
+    }
+
+    /**
+     * Opens a journal, recovering the messages of the segments found in the directory.
+     *
+     * @param dir
+     * @param segmentSize the size of the segment files.
+     * @param syncDelay how long to wait for more messages before forcing them to disk, in
+     *                  milliseconds, or 0 to force each message when appended.
+     * @throws IOException
+     */
+    public Journal(File dir, int segmentSize, long syncDelay) throws IOException {
+        if (segmentSize <= SEGMENT_HEADER + RECORD_HEADER) {
+            throw new IllegalArgumentException("invalid segment size: " + segmentSize);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("can't create journal directory " + dir);
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.syncDelay = syncDelay;
+        this.recover();
+    }
+
+    private void recover() throws IOException {
+        for (int slot = 0; ; slot++) {
+            File file = this.segmentFile(slot);
+            if (!file.exists()) break;
+            this.segments.add(new Segment(slot, file, (int) Math.max(file.length(), this.segmentSize)));
+        }
+
+        for (Segment segment : this.segments) {
+            segment.sequence = segment.buffer.getLong(0);
+            this.sequence = Math.max(this.sequence, segment.sequence);
+        }
+        for (Segment segment : this.usedSegments()) {
+            segment.position = this.scan(segment, null);
+            this.pendingCount += segment.pending;
+            if (segment.pending == 0) {
+                this.free(segment);
+            }
+        }
+        for (Segment segment : this.segments) {
+            if (segment.sequence == 0) {
+                this.freeSegments.add(segment);
+            }
+        }
+
+        if (this.pendingCount > 0 && logger.isLoggable(Level.FINE)) {
+            logger.fine(String.format("recovered %d messages from journal %s", this.pendingCount, this.dir));
+        }
+    }
+
+    // the segments holding records, in the order they were written
+    private List<Segment> usedSegments() {
+        List<Segment> used = new ArrayList<>();
+        for (Segment segment : this.segments) {
+            if (segment.sequence > 0) {
+                used.add(segment);
+            }
+        }
+        used.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+        return used;
+    }
+
+    /**
+     * Counts the records of a segment not done, and collects them.
+     *
+     * @return the end of the records.
+     */
+    private int scan(Segment segment, List<Long> records) {
+        ByteBuffer buffer = segment.buffer;
+        int offset = SEGMENT_HEADER;
+        int pending = 0;
+        while (offset + RECORD_HEADER <= buffer.capacity()) {
+            int length = buffer.getInt(offset) - 1;
+            if (length < 0 || offset + RECORD_HEADER + length > buffer.capacity()) break;
+            if ((buffer.get(offset + 4) & DONE) == 0) {
+                pending++;
+                if (records != null) {
+                    records.add(record(segment.slot, offset));
+                }
+            }
+            offset += RECORD_HEADER + length;
+        }
+        segment.pending = pending;
+        return offset;
+    }
+
+    /**
+     * Returns the number of messages not written yet.
+     *
+     * @return the number of messages.
+     */
+    public int pendingCount() {
+        return this.pendingCount;
+    }
+
+    /**
+     * Returns the records not done, in the order they were appended.
+     *
+     * @return the records.
+     */
+    /*package*/ List<Long> pendingRecords() {
+        List<Long> records = new ArrayList<>(this.pendingCount);
+        for (Segment segment : this.usedSegments()) {
+            this.scan(segment, records);
+        }
+        return records;
+    }
+
+    /**
+     * Appends a message.
+     *
+     * @param packet
+     * @return the record of the message, or -1 if it is not journaled.
+     */
+    /*package*/ long append(Packet packet) {
+        if (this.closed) return -1;
+
+        Object data = packet instanceof TextPacket ? ((TextPacket) packet).body() : packet.data;
+        if (packet instanceof BinaryPacket) {
+            data = ((BinaryPacket) packet).buffer();
+        } else if (packet instanceof BufferPacket) {
+            BufferPacket bufferPacket = (BufferPacket) packet;
+            data = bufferPacket.isBinary() ? bufferPacket.body() : bufferPacket.body().readUtf8();
+        } else if (packet instanceof PreEncodedPacket && ((PreEncodedPacket) packet).isBinary()) {
+            data = ((ByteString) packet.data).asByteBuffer();
+        } else if (data instanceof byte[]) {
+            data = ByteBuffer.wrap((byte[]) data);
+        }
+
+        boolean binary = !(data instanceof CharSequence);
+        long size;
+        if (data instanceof ByteBuffer) {
+            size = ((ByteBuffer) data).remaining();
+        } else if (data instanceof Buffer) {
+            size = ((Buffer) data).size();
+        } else if (data instanceof CharSequence) {
+            // the most bytes the text can take in UTF-8
+            size = 3L * ((CharSequence) data).length();
+        } else {
+            return -1;
+        }
+        if (SEGMENT_HEADER + RECORD_HEADER + size > this.segmentSize) {
+            logger.warning("message too large to be journaled: " + size);
+            return -1;
+        }
+
+        try {
+            if (this.current == null || this.current.position + RECORD_HEADER + size > this.current.buffer.capacity()) {
+                this.roll();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "failed to create journal segment", e);
+            return -1;
+        }
+
+        Segment segment = this.current;
+        int offset = segment.position;
+        ByteBuffer target = segment.buffer.duplicate();
+        target.position(offset + RECORD_HEADER);
+        if (data instanceof ByteBuffer) {
+            target.put(((ByteBuffer) data).duplicate());
+        } else if (data instanceof Buffer) {
+            try {
+                Buffer buffer = (Buffer) data;
+                while (buffer.read(target) > 0) ;
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        } else {
+            this.encoder.reset();
+            CharBuffer chars = CharBuffer.wrap((CharSequence) data);
+            CoderResult result = this.encoder.encode(chars, target, true);
+            if (!result.isUnderflow() || !this.encoder.flush(target).isUnderflow()) {
+                logger.warning("failed to journal message: " + result);
+                return -1;
+            }
+        }
+
+        int length = target.position() - offset - RECORD_HEADER;
+        int end = target.position();
+        // ends the segment after the record before the record is complete
+        if (end + RECORD_HEADER <= segment.buffer.capacity()) {
+            segment.buffer.putInt(end, 0);
+        }
+        segment.buffer.put(offset + 4, binary ? BINARY : 0);
+        segment.buffer.putInt(offset, length + 1);
+        segment.position = end;
+        segment.pending++;
+        this.pendingCount++;
+        this.syncSoon();
+        return record(segment.slot, offset);
+    }
+
+    /**
+     * Reads the message of a record.
+     *
+     * @param record
+     * @return the message.
+     */
+    /*package*/ Packet read(long record) {
+        ByteBuffer buffer = this.segments.get(slotOf(record)).buffer.duplicate();
+        int offset = offsetOf(record);
+        int length = buffer.getInt(offset) - 1;
+        boolean binary = (buffer.get(offset + 4) & BINARY) != 0;
+        byte[] data = new byte[length];
+        buffer.position(offset + RECORD_HEADER);
+        buffer.get(data);
+        return binary ? new BinaryPacket(data) : new TextPacket(PacketType.MESSAGE, new String(data, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Marks the message of a record as done, so that it is not sent again.
+     *
+     * @param record
+     */
+    /*package*/ void done(long record) {
+        if (this.closed) return;
+
+        Segment segment = this.segments.get(slotOf(record));
+        int offset = offsetOf(record);
+        byte flags = segment.buffer.get(offset + 4);
+        if ((flags & DONE) != 0) return;
+        segment.buffer.put(offset + 4, (byte) (flags | DONE));
+        this.pendingCount--;
+        if (--segment.pending == 0 && segment != this.current) {
+            this.free(segment);
+            this.freeSegments.add(segment);
+        }
+    }
+
+    /**
+     * Forces the appended messages to disk.
+     */
+    public void sync() {
+        this.syncScheduled.set(false);
+        Segment[] segments;
+        synchronized (this.segments) {
+            segments = this.segments.toArray(new Segment[0]);
+        }
+        for (Segment segment : segments) {
+            if (segment.dirty) {
+                segment.dirty = false;
+                segment.buffer.force();
+            }
+        }
+    }
+
+    private void syncSoon() {
+        this.current.dirty = true;
+        if (this.syncDelay <= 0) {
+            this.current.dirty = false;
+            this.current.buffer.force();
+            return;
+        }
+        if (!this.syncScheduled.get() && this.syncScheduled.compareAndSet(false, true)) {
+            if (this.syncScheduler == null) {
+                this.syncScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "engine.io-client.journal-" + SYNC_THREAD_COUNTER.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            this.syncScheduler.schedule(this::sync, this.syncDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void roll() throws IOException {
+        Segment previous = this.current;
+        Segment segment = this.freeSegments.poll();
+        if (segment == null) {
+            int slot = this.segments.size();
+            segment = new Segment(slot, this.segmentFile(slot), this.segmentSize);
+            synchronized (this.segments) {
+                this.segments.add(segment);
+            }
+        }
+        segment.sequence = ++this.sequence;
+        segment.buffer.putInt(SEGMENT_HEADER, 0);
+        segment.buffer.putLong(0, segment.sequence);
+        segment.position = SEGMENT_HEADER;
+        segment.pending = 0;
+        this.current = segment;
+
+        if (previous != null && previous.pending == 0) {
+            this.free(previous);
+            this.freeSegments.add(previous);
+        }
+    }
+
+    private void free(Segment segment) {
+        segment.sequence = 0;
+        segment.buffer.putLong(0, 0);
+        segment.dirty = true;
+    }
+
+    private File segmentFile(int slot) {
+        return new File(this.dir, "segment-" + slot + ".journal");
+    }
+
+    @Override
+    public void close() {
+        if (this.closed) return;
+        this.closed = true;
+        if (this.syncScheduler != null) {
+            this.syncScheduler.shutdown();
+        }
+        this.sync();
+    }
+
+    private static long record(int slot, int offset) {
+        return ((long) slot << 32) | offset;
+    }
+
+    private static int slotOf(long record) {
+        return (int) (record >>> 32);
+    }
+
+    private static int offsetOf(long record) {
+        return (int) record;
+    }
+
+    private static final class Segment {
+
+        final int slot;
+        final MappedByteBuffer buffer;
+        long sequence;
+        int position;
+        int pending;
+        volatile boolean dirty;
+
+        Segment(int slot, File file, int size) throws IOException {
+            this.slot = slot;
+            // the mapping stays valid once the file is closed
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+    }
+}
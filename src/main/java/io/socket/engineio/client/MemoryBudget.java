@@ -0,0 +1,240 @@
+package io.socket.engineio.client;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A number of bytes of messages buffered for writing shared by sockets, e.g. by every socket of
+ * the process, set with {@link Socket.Options#memoryBudget}. Sockets reserve the bytes of their
+ * messages when they are sent and release them once written or dropped. When the budget is
+ * exhausted, sending a message does what {@link Socket.Options#overflowPolicy} says, as when the
+ * buffer of the socket is full.
+ * <p>
+ * The budget can also be exhausted by the heap filling up, see {@link #watchHeap(double)}.
+ */
+public class MemoryBudget implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(MemoryBudget.class.getName());
+
+    private final long maxBytes;
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final Object lock = new Object();
+    private volatile int waiters;
+
+    // the collection usage thresholds set by budgets, by pool name
+    private static final Map<String, Long> thresholds = new HashMap<>();
+    private static final List<MemoryBudget> watchers = new CopyOnWriteArrayList<>();
+
+    private final List<MemoryPoolMXBean> heapPools = new CopyOnWriteArrayList<>();
+    // the usage after a collection beyond which the heap is low, by pool name
+    private final Map<String, Long> heapLimits = new ConcurrentHashMap<>();
+    private NotificationEmitter emitter;
+    private NotificationListener listener;
+    private volatile boolean lowMemory;
+
+    /**
+     * Creates a budget.
+     *
+     * @param maxBytes the number of bytes, counting text as chars, or 0 for no limit but the
+     *                 heap one.
+     */
+    public MemoryBudget(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("invalid budget: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    public long maxBytes() {
+        return this.maxBytes;
+    }
+
+    public long usedBytes() {
+        return this.usedBytes.get();
+    }
+
+    /**
+     * Exhausts the budget while the heap pools, e.g. the old generation, are more than the
+     * fraction full after a garbage collection, as notified by the {@code MemoryMXBean}. Sets the
+     * collection usage threshold of the pools unless another component did, in which case the
+     * budget is not exhausted before that threshold is. {@link #close()} stops watching.
+     *
+     * @param fraction
+     * @return a reference to this object.
+     */
+    public MemoryBudget watchHeap(double fraction) {
+        return this.watchHeap(fraction, ManagementFactory.getMemoryPoolMXBeans(),
+                (NotificationEmitter) ManagementFactory.getMemoryMXBean());
+    }
+
+    /*package*/ MemoryBudget watchHeap(double fraction, List<MemoryPoolMXBean> pools, NotificationEmitter emitter) {
+        if (fraction <= 0 || fraction > 1) {
+            throw new IllegalArgumentException("invalid heap fraction: " + fraction);
+        }
+
+        synchronized (thresholds) {
+            if (this.listener != null) {
+                throw new IllegalStateException("already watching the heap");
+            }
+            for (MemoryPoolMXBean pool : pools) {
+                if (pool.getType() != MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported()) continue;
+                long max = pool.getUsage().getMax();
+                if (max <= 0) continue;
+                long limit = (long) (max * fraction);
+                this.heapPools.add(pool);
+                this.heapLimits.put(pool.getName(), limit);
+
+                long threshold = pool.getCollectionUsageThreshold();
+                Long own = thresholds.get(pool.getName());
+                if (threshold == 0 || (own != null && own == threshold && limit < threshold)) {
+                    pool.setCollectionUsageThreshold(limit);
+                    thresholds.put(pool.getName(), limit);
+                }
+            }
+            watchers.add(this);
+
+            this.emitter = emitter;
+            this.listener = (Notification notification, Object handback) -> {
+                if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+                    this.lowMemory = true;
+                    if (this.isLowMemory()) {
+                        logger.warning("heap usage threshold exceeded, outbound memory budget exhausted");
+                    }
+                }
+            };
+            emitter.addNotificationListener(this.listener, null, null);
+        }
+        return this;
+    }
+
+    /**
+     * Stops watching the heap, restoring the thresholds set for this budget.
+     */
+    @Override
+    public void close() {
+        synchronized (thresholds) {
+            if (this.listener == null) return;
+            try {
+                this.emitter.removeNotificationListener(this.listener);
+            } catch (ListenerNotFoundException e) {
+                // already removed
+            }
+            this.listener = null;
+            this.emitter = null;
+            watchers.remove(this);
+
+            for (MemoryPoolMXBean pool : this.heapPools) {
+                Long own = thresholds.get(pool.getName());
+                if (own == null || own != pool.getCollectionUsageThreshold()) continue;
+                long threshold = 0;
+                for (MemoryBudget watcher : watchers) {
+                    Long limit = watcher.heapLimits.get(pool.getName());
+                    if (limit != null && (threshold == 0 || limit < threshold)) {
+                        threshold = limit;
+                    }
+                }
+                pool.setCollectionUsageThreshold(threshold);
+                if (threshold == 0) {
+                    thresholds.remove(pool.getName());
+                } else {
+                    thresholds.put(pool.getName(), threshold);
+                }
+            }
+            this.heapPools.clear();
+            this.heapLimits.clear();
+            this.lowMemory = false;
+        }
+    }
+
+    /**
+     * Returns whether more bytes are used than the budget, or whether the heap is low.
+     *
+     * @return true if exhausted.
+     */
+    public boolean isExhausted() {
+        return (this.maxBytes > 0 && this.usedBytes.get() > this.maxBytes) || this.isLowMemory();
+    }
+
+    /*package*/ boolean tryReserve(long bytes) {
+        if (this.isLowMemory()) {
+            return false;
+        }
+        long used = this.usedBytes.addAndGet(bytes);
+        if (this.maxBytes <= 0 || used <= this.maxBytes) {
+            return true;
+        }
+        this.release(bytes);
+        return false;
+    }
+
+    // reserves bytes regardless of the budget
+    /*package*/ void reserve(long bytes) {
+        this.usedBytes.addAndGet(bytes);
+    }
+
+    /*package*/ void release(long bytes) {
+        this.usedBytes.addAndGet(-bytes);
+        if (this.waiters > 0) {
+            synchronized (this.lock) {
+                this.lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits for bytes to be released, unless there is room for the bytes already.
+     *
+     * @param bytes
+     * @param nanos the time to wait at most.
+     * @throws InterruptedException
+     */
+    /*package*/ void await(long bytes, long nanos) throws InterruptedException {
+        synchronized (this.lock) {
+            this.waiters++;
+            try {
+                if (this.isLowMemory() || (this.maxBytes > 0 && this.usedBytes.get() + bytes > this.maxBytes)) {
+                    TimeUnit.NANOSECONDS.timedWait(this.lock, nanos);
+                }
+            } finally {
+                this.waiters--;
+            }
+        }
+    }
+
+    // checks the pools only once notified, and until they are back under their thresholds
+    private boolean isLowMemory() {
+        if (!this.lowMemory) {
+            return false;
+        }
+        boolean exceeded = false;
+        for (MemoryPoolMXBean pool : this.heapPools) {
+            if (!pool.isCollectionUsageThresholdExceeded()) continue;
+            exceeded = true;
+            MemoryUsage usage = pool.getCollectionUsage();
+            Long limit = this.heapLimits.get(pool.getName());
+            if (usage != null && limit != null && usage.getUsed() > limit) {
+                return true;
+            }
+        }
+        if (!exceeded) {
+            this.lowMemory = false;
+        }
+        return false;
+    }
+}
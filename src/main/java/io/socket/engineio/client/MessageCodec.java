@@ -0,0 +1,56 @@
+package io.socket.engineio.client;
+
+
+import java.io.IOException;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+
+/**
+ * Serializes messages straight into the buffers transports send, and deserializes received
+ * messages from their bytes, without going through an intermediate {@code String} or array.
+ *
+ * @param <T> the type of messages.
+ * @see Socket#send(Object, MessageCodec)
+ * @see Socket.Options#messageCodec
+ */
+public interface MessageCodec<T> {
+
+    /**
+     * Whether encoded messages are sent as binary data rather than as UTF-8 text.
+     *
+     * @return true for binary messages.
+     */
+    default boolean isBinary() {
+        return false;
+    }
+
+    /**
+     * Whether an encoded message is sent as binary data, for codecs whose messages may be either.
+     *
+     * @param encoded the bytes written by {@link #encode(Object, BufferedSink)}.
+     * @return true for a binary message.
+     */
+    default boolean isBinary(Buffer encoded) {
+        return this.isBinary();
+    }
+
+    /**
+     * Writes a message. Text messages must be written as UTF-8.
+     *
+     * @param message
+     * @param sink
+     * @throws IOException if the message cannot be encoded.
+     */
+    void encode(T message, BufferedSink sink) throws IOException;
+
+    /**
+     * Reads a received message, text or binary, from its bytes.
+     *
+     * @param source the bytes of the message.
+     * @return the message.
+     * @throws IOException if the message cannot be decoded.
+     */
+    T decode(BufferedSource source) throws IOException;
+}
@@ -0,0 +1,57 @@
+package io.socket.engineio.client;
+
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import io.socket.engineio.parser.PreEncodedPacket;
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * An immutable message which is encoded once and can then be sent any number of times, to any
+ * number of sockets, e.g. with {@link Socket#broadcast(java.util.Collection, PreEncodedMessage)}.
+ * It is encoded as a frame for WebSocket and as a part of a payload for polling, each on first
+ * use.
+ */
+public final class PreEncodedMessage {
+
+    /*package*/ final PreEncodedPacket packet;
+
+    private PreEncodedMessage(PreEncodedPacket packet) {
+        this.packet = packet;
+    }
+
+    public static PreEncodedMessage text(String msg) {
+        return new PreEncodedMessage(new PreEncodedPacket(msg));
+    }
+
+    public static PreEncodedMessage binary(byte[] msg) {
+        return new PreEncodedMessage(new PreEncodedPacket(ByteString.of(msg)));
+    }
+
+    /**
+     * Creates a message serialized by the codec.
+     *
+     * @param msg
+     * @param codec
+     * @return the message.
+     * @throws UncheckedIOException if the codec fails to serialize the message.
+     */
+    public static <T> PreEncodedMessage of(T msg, MessageCodec<? super T> codec) {
+        Buffer buffer = new Buffer();
+        try {
+            codec.encode(msg, buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        PreEncodedPacket packet = codec.isBinary(buffer)
+                ? new PreEncodedPacket(buffer.readByteString())
+                : new PreEncodedPacket(buffer.readUtf8());
+        return new PreEncodedMessage(packet);
+    }
+
+    public boolean isBinary() {
+        return this.packet.isBinary();
+    }
+}
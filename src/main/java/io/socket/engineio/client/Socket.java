@@ -1,12 +1,17 @@
 package io.socket.engineio.client;
 
-import org.json.JSONException;
-
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -14,11 +19,21 @@ import io.socket.emitter.Emitter;
 import io.socket.engineio.client.transports.Polling;
 import io.socket.engineio.client.transports.PollingXHR;
 import io.socket.engineio.client.transports.WebSocket;
+import io.socket.engineio.parser.BinaryPacket;
+import io.socket.engineio.parser.BufferPacket;
+import io.socket.engineio.parser.BufferPool;
 import io.socket.engineio.parser.Packet;
+import io.socket.engineio.parser.PacketPool;
+import io.socket.engineio.parser.PacketType;
 import io.socket.engineio.parser.Parser;
+import io.socket.engineio.parser.PreEncodedPacket;
+import io.socket.engineio.parser.TextPacket;
 import io.socket.parseqs.ParseQS;
 import io.socket.thread.EventThread;
+import io.socket.thread.MpscArrayQueue;
 import okhttp3.OkHttpClient;
+import okio.Buffer;
+import okio.ByteString;
 
 
 /**
@@ -34,6 +49,10 @@ public class Socket extends Emitter {
 
     private static final String PROBE_ERROR = "probe error";
 
+    // how long a sending thread parks at first and at most while the write queue is full, in nanoseconds
+    private static final long MIN_OFFER_BACKOFF = 1000;
+    private static final long MAX_OFFER_BACKOFF = 1000 * 1000;
+
 
     private enum ReadyState {
         OPENING, OPEN, CLOSING, CLOSED;
@@ -76,6 +95,23 @@ public class Socket extends Emitter {
      */
     public static final String EVENT_DRAIN = "drain";
 
+    /**
+     * Called when the bytes buffered for writing reach {@link Options#highWatermark}.
+     */
+    public static final String EVENT_HIGH_WATERMARK = "highWatermark";
+
+    /**
+     * Called when the bytes buffered for writing fall back to {@link Options#lowWatermark}.
+     */
+    public static final String EVENT_LOW_WATERMARK = "lowWatermark";
+
+    /**
+     * Called when messages are dropped instead of written, with the reason and the number of
+     * messages: "overflow" (see {@link Options#overflowPolicy}), "expired" (past their TTL), or
+     * "queue delay" (see {@link Options#codelTarget}).
+     */
+    public static final String EVENT_DROP = "drop";
+
     public static final String EVENT_HANDSHAKE = "handshake";
     public static final String EVENT_UPGRADING = "upgrading";
     public static final String EVENT_UPGRADE = "upgrade";
@@ -107,11 +143,38 @@ public class Socket extends Emitter {
     private final boolean timestampRequests;
     private boolean upgrading;
     private final boolean rememberUpgrade;
+    private final boolean lazyMessages;
+    private final PacketPool packetPool;
+    private final BufferPool bufferPool;
+    private final boolean rawMessages;
+    private final MessageCodec<?> messageCodec;
+    private final long maxMessageSize;
+    private final long maxPayloadSize;
+    private final int protocol;
+    private final long maxBufferedBytes;
+    private final int maxBufferedPackets;
+    private final OverflowPolicy overflowPolicy;
+    private final long overflowTimeout;
+    private final MemoryBudget memoryBudget;
+    private final Journal journal;
+    private final long highWatermark;
+    private final long lowWatermark;
+    private final long coalesceDelay;
+    private final long coalesceMaxBytes;
+    private final boolean adaptiveCoalescing;
+    private final long messageTtl;
+    private final long codelTarget;
+    private final long codelInterval;
+    private final long[] priorityBudgets;
+    // the budgets of the priority lanes carried over to the next flush
+    private final long[] laneDeficits = new long[Priority.values().length];
     /*package*/ int port;
     private final int policyPort;
     private int prevBufferLen;
     private long pingInterval;
     private long pingTimeout;
+    private long maxPayload;
+    private final Parser.Options payloadOptions = new Parser.Options();
     private String id;
     /*package*/ String hostname;
     private final String path;
@@ -121,8 +184,45 @@ public class Socket extends Emitter {
     private List<String> upgrades;
     private final Map<String, String> query;
     /*package*/ LinkedList<Packet> writeBuffer = new LinkedList<>();
+    // the callbacks of the packets in writeBuffer: a Runnable run on flush, a
+    // CompletableFuture completed on drain, either of them or null in a HeldWrite, or null
+    private final LinkedList<Object> writeCallbacks = new LinkedList<>();
+    private int flushCallbacks;
+    // the messages sent with a key which are not flushed yet, by key
+    private final Map<Object, HeldWrite> latestPackets = new HashMap<>();
+    // the messages in writeBuffer and writeQueue
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final AtomicInteger bufferedPackets = new AtomicInteger();
+    private final Object bufferLock = new Object();
+    private volatile int bufferWaiters;
+    private boolean aboveHighWatermark;
+    // the bytes of the messages in writeBuffer not flushed yet
+    private long unflushedBytes;
+    private Future coalesceTimer;
+    private long lastBufferedAt;
+    // a moving average of the time between two buffered messages, in nanoseconds
+    private long bufferedInterval = -1;
+    private final AtomicLong droppedMessages = new AtomicLong();
+    // the state of the CoDel policy, see RFC 8289
+    private boolean codelDropping;
+    private long codelFirstAboveTime;
+    private long codelDropNext;
+    private int codelCount;
+    private int codelLastCount;
+    // packets sent from other threads, moved to writeBuffer by the event thread
+    private final MpscArrayQueue<Object> writeQueue;
+    private final AtomicBoolean writeQueueScheduled = new AtomicBoolean();
+    private final AtomicInteger corks = new AtomicInteger();
+    private final Consumer<Object> onQueuedWrite = this::onQueuedWrite;
+    private final Runnable drainWriteQueue = () -> {
+        Socket.this.writeQueueScheduled.set(false);
+        if (Socket.this.drainWriteQueue() > 0) {
+            Socket.this.flushSoon();
+        }
+    };
     /*package*/ Transport transport;
     private Future pingTimeoutTimer;
+    private Future pingIntervalTimer;
     private okhttp3.WebSocket.Factory webSocketFactory;
     private okhttp3.Call.Factory callFactory;
     private final Map<String, List<String>> extraHeaders;
@@ -198,6 +298,42 @@ public class Socket extends Emitter {
                 opts.transportOptions : new HashMap<>();
         this.policyPort = opts.policyPort != 0 ? opts.policyPort : 843;
         this.rememberUpgrade = opts.rememberUpgrade;
+        this.lazyMessages = opts.lazyMessages;
+        this.packetPool = opts.packetPool;
+        this.bufferPool = opts.bufferPool;
+        this.messageCodec = opts.messageCodec;
+        this.rawMessages = opts.rawMessages || opts.messageCodec != null;
+        this.maxMessageSize = opts.maxMessageSize;
+        this.maxPayloadSize = opts.maxPayloadSize;
+        if (opts.protocol != Parser.PROTOCOL && opts.protocol != Parser.PROTOCOL_V3) {
+            throw new IllegalArgumentException("unsupported protocol: " + opts.protocol);
+        }
+        this.protocol = opts.protocol;
+        this.payloadOptions.protocol = opts.protocol;
+        this.writeQueue = new MpscArrayQueue<>(opts.writeQueueSize);
+        this.maxBufferedBytes = opts.maxBufferedBytes;
+        this.maxBufferedPackets = opts.maxBufferedPackets;
+        this.overflowPolicy = opts.overflowPolicy != null ? opts.overflowPolicy : OverflowPolicy.BLOCK;
+        this.overflowTimeout = opts.overflowTimeout;
+        this.memoryBudget = opts.memoryBudget;
+        this.journal = opts.journal;
+        this.highWatermark = opts.highWatermark;
+        this.lowWatermark = opts.lowWatermark > 0 ? Math.min(opts.lowWatermark, opts.highWatermark) : opts.highWatermark / 2;
+        this.coalesceDelay = TimeUnit.MICROSECONDS.toNanos(opts.coalesceDelay);
+        this.coalesceMaxBytes = opts.coalesceMaxBytes;
+        this.adaptiveCoalescing = opts.adaptiveCoalescing;
+        this.messageTtl = TimeUnit.MILLISECONDS.toNanos(opts.messageTtl);
+        this.codelTarget = TimeUnit.MILLISECONDS.toNanos(opts.codelTarget);
+        this.codelInterval = TimeUnit.MILLISECONDS.toNanos(opts.codelInterval);
+        if (opts.priorityBudgets == null || opts.priorityBudgets.length != Priority.values().length) {
+            throw new IllegalArgumentException("a budget is needed for each priority");
+        }
+        for (long budget : opts.priorityBudgets) {
+            if (budget <= 0) {
+                throw new IllegalArgumentException("invalid priority budget: " + budget);
+            }
+        }
+        this.priorityBudgets = opts.priorityBudgets.clone();
         this.callFactory = opts.callFactory != null ? opts.callFactory : defaultCallFactory;
         this.webSocketFactory = opts.webSocketFactory != null ? opts.webSocketFactory : defaultWebSocketFactory;
         if (callFactory == null) {
@@ -245,6 +381,9 @@ public class Socket extends Emitter {
                 transportName = Socket.this.transports.get(0);
             }
             Socket.this.readyState = ReadyState.OPENING;
+            if (Socket.this.journal != null) {
+                Socket.this.replayJournal();
+            }
             Transport transport = Socket.this.createTransport(transportName);
             Socket.this.setTransport(transport);
             transport.open();
@@ -252,13 +391,46 @@ public class Socket extends Emitter {
         return this;
     }
 
+    /**
+     * Puts the messages of the journal not written yet in front of the write buffer, so that
+     * they are sent first once open.
+     */
+    private void replayJournal() {
+        Set<Long> buffered = new HashSet<>();
+        for (Object callback : this.writeCallbacks) {
+            if (callback instanceof HeldWrite) {
+                buffered.add(((HeldWrite) callback).record);
+            }
+        }
+
+        LinkedList<Packet> packets = new LinkedList<>();
+        LinkedList<Object> callbacks = new LinkedList<>();
+        for (long record : this.journal.pendingRecords()) {
+            if (buffered.contains(record)) continue;
+            Packet packet = this.journal.read(record);
+            this.account(packet);
+            HeldWrite held = new HeldWrite(null);
+            held.record = record;
+            packets.add(packet);
+            callbacks.add(held);
+        }
+        if (packets.isEmpty()) return;
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(String.format("replaying %d packets from journal", packets.size()));
+        }
+        this.writeBuffer.addAll(0, packets);
+        this.writeCallbacks.addAll(0, callbacks);
+        this.updateWatermark();
+    }
+
     private Transport createTransport(String name) {
         if (logger.isLoggable(Level.FINE)) {
             logger.fine(String.format("creating transport '%s'", name));
         }
         Map<String, String> query = new HashMap<>(this.query);
 
-        query.put("EIO", String.valueOf(Parser.PROTOCOL));
+        query.put("EIO", String.valueOf(this.protocol));
         query.put("transport", name);
         if (this.id != null) {
             query.put("sid", this.id);
@@ -281,6 +453,13 @@ public class Socket extends Emitter {
         opts.callFactory = options != null ? options.callFactory : this.callFactory;
         opts.webSocketFactory = options != null ? options.webSocketFactory : this.webSocketFactory;
         opts.extraHeaders = this.extraHeaders;
+        opts.lazyMessages = this.lazyMessages;
+        opts.packetPool = this.packetPool;
+        opts.bufferPool = this.bufferPool;
+        opts.rawMessages = this.rawMessages;
+        opts.maxMessageSize = this.maxMessageSize;
+        opts.maxPayloadSize = this.maxPayloadSize;
+        opts.protocol = this.protocol;
 
         Transport transport;
         if (WebSocket.NAME.equals(name)) {
@@ -336,13 +515,13 @@ public class Socket extends Emitter {
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine(String.format("probe transport '%s' opened", name));
             }
-            Packet<String> packet = new Packet<>(Packet.PING, "probe");
+            Packet<String> packet = new TextPacket(PacketType.PING, "probe");
             transport[0].send(new Packet[] {packet});
             transport[0].once(Transport.EVENT_PACKET, args1 -> {
                 if (failed[0]) return;
 
                 Packet msg = (Packet) args1[0];
-                if (Packet.PONG.equals(msg.type) && "probe".equals(msg.data)) {
+                if (msg.packetType() == PacketType.PONG && "probe".equals(msg.data)) {
                     if (logger.isLoggable(Level.FINE)) {
                         logger.fine(String.format("probe transport '%s' pong", name));
                     }
@@ -363,12 +542,14 @@ public class Socket extends Emitter {
                         cleanup[0].run();
 
                         self.setTransport(transport[0]);
-                        Packet packet1 = new Packet(Packet.UPGRADE);
+                        Packet packet1 = new TextPacket(PacketType.UPGRADE);
                         transport[0].send(new Packet[]{packet1});
                         self.emit(EVENT_UPGRADE, transport[0]);
                         transport[0] = null;
                         self.upgrading = false;
-                        self.flush();
+                        if (!self.isCorked()) {
+                            self.flush();
+                        }
                     });
                 } else {
                     if (logger.isLoggable(Level.FINE)) {
@@ -453,7 +634,9 @@ public class Socket extends Emitter {
         this.readyState = ReadyState.OPEN;
         Socket.priorWebsocketSuccess = WebSocket.NAME.equals(this.transport.name);
         this.emit(EVENT_OPEN);
-        this.flush();
+        if (!this.isCorked()) {
+            this.flush();
+        }
 
         if (this.readyState == ReadyState.OPEN && this.upgrade && this.transport instanceof Polling) {
             logger.fine("starting upgrade probes");
@@ -474,22 +657,53 @@ public class Socket extends Emitter {
             this.emit(EVENT_PACKET, packet);
             this.emit(EVENT_HEARTBEAT);
 
-            if (Packet.OPEN.equals(packet.type)) {
-                try {
-                    this.onHandshake(new HandshakeData((String)packet.data));
-                } catch (JSONException e) {
-                    this.emit(EVENT_ERROR, new EngineIOException(e));
-                }
-            } else if (Packet.PING.equals(packet.type)) {
-                this.emit(EVENT_PING);
-                EventThread.exec(() -> Socket.this.sendPacket(Packet.PONG, null));
-            } else if (Packet.ERROR.equals(packet.type)) {
-                EngineIOException err = new EngineIOException("server error");
-                err.code = packet.data;
-                this.onError(err);
-            } else if (Packet.MESSAGE.equals(packet.type)) {
-                this.emit(EVENT_DATA, packet.data);
-                this.emit(EVENT_MESSAGE, packet.data);
+            PacketType type = packet.packetType();
+            if (type == null) return;
+
+            switch (type) {
+                case OPEN:
+                    try {
+                        this.onHandshake(new HandshakeData((String)packet.data));
+                    } catch (EngineIOException e) {
+                        this.emit(EVENT_ERROR, e);
+                    }
+                    break;
+                case PING:
+                    this.emit(EVENT_PING);
+                    EventThread.exec(() -> Socket.this.sendPacket(PacketType.PONG, null));
+                    break;
+                case PONG:
+                    if (this.protocol == Parser.PROTOCOL_V3) {
+                        this.setPing();
+                        this.emit(EVENT_PONG);
+                    }
+                    break;
+                case ERROR:
+                    EngineIOException err = new EngineIOException("server error");
+                    err.code = packet.data;
+                    this.onError(err);
+                    break;
+                case MESSAGE:
+                    Object data;
+                    if (packet instanceof BufferPacket && this.messageCodec != null) {
+                        try {
+                            data = this.messageCodec.decode(((BufferPacket) packet).body());
+                        } catch (IOException | RuntimeException e) {
+                            this.emit(EVENT_ERROR, new EngineIOException("message decode error", e));
+                            break;
+                        }
+                    } else if (packet instanceof TextPacket) {
+                        data = ((TextPacket) packet).body();
+                    } else if (packet instanceof BinaryPacket && packet.data == null) {
+                        data = ((BinaryPacket) packet).buffer();
+                    } else {
+                        data = packet.data;
+                    }
+                    this.emit(EVENT_DATA, data);
+                    this.emit(EVENT_MESSAGE, data);
+                    break;
+                default:
+                    break;
             }
         } else {
             if (logger.isLoggable(Level.FINE)) {
@@ -505,9 +719,14 @@ public class Socket extends Emitter {
         this.upgrades = this.filterUpgrades(Arrays.asList(data.upgrades));
         this.pingInterval = data.pingInterval;
         this.pingTimeout = data.pingTimeout;
+        this.maxPayload = data.maxPayload;
         this.onOpen();
         // In case open handler closes socket
         if (ReadyState.CLOSED == this.readyState) return;
+        if (this.protocol == Parser.PROTOCOL_V3) {
+            // the client pings with protocol v3
+            this.setPing();
+        }
         this.onHeartbeat();
 
         this.off(EVENT_HEARTBEAT, this.onHeartbeatAsListener);
@@ -515,12 +734,14 @@ public class Socket extends Emitter {
     }
 
     private void onHeartbeat() {
+        this.onHeartbeat(this.pingInterval + this.pingTimeout);
+    }
+
+    private void onHeartbeat(long timeout) {
         if (this.pingTimeoutTimer != null) {
             pingTimeoutTimer.cancel(false);
         }
 
-        long timeout = this.pingInterval + this.pingTimeout;
-
         final Socket self = this;
         this.pingTimeoutTimer = this.getHeartbeatScheduler().schedule(() -> EventThread.exec(() -> {
             if (self.readyState == ReadyState.CLOSED) return;
@@ -528,15 +749,44 @@ public class Socket extends Emitter {
         }), timeout, TimeUnit.MILLISECONDS);
     }
 
+    private void setPing() {
+        if (this.pingIntervalTimer != null) {
+            pingIntervalTimer.cancel(false);
+        }
+
+        final Socket self = this;
+        this.pingIntervalTimer = this.getHeartbeatScheduler().schedule(() -> EventThread.exec(() -> {
+            if (self.readyState != ReadyState.OPEN) return;
+            self.sendPacket(PacketType.PING, null);
+            self.onHeartbeat(self.pingTimeout);
+        }), this.pingInterval, TimeUnit.MILLISECONDS);
+    }
+
     private void onDrain() {
+        List<Object> written = null;
         for (int i = 0; i < this.prevBufferLen; i++) {
-            this.writeBuffer.poll();
+            Object callback = this.writeCallbacks.poll();
+            this.discard(this.writeBuffer.poll(), callback);
+            if (callback instanceof HeldWrite) {
+                callback = ((HeldWrite) callback).callback;
+            }
+            if (callback != null) {
+                if (written == null) written = new ArrayList<>();
+                written.add(callback);
+            }
         }
 
         this.prevBufferLen = 0;
+        if (written != null) {
+            for (Object callback : written) {
+                complete(callback);
+            }
+        }
+        this.drainWriteQueue();
+        this.updateWatermark();
         if (this.writeBuffer.isEmpty()) {
             this.emit(EVENT_DRAIN);
-        } else {
+        } else if (!this.isCorked()) {
             this.flush();
         }
     }
@@ -547,9 +797,312 @@ public class Socket extends Emitter {
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine(String.format("flushing %d packets in socket", this.writeBuffer.size()));
             }
-            this.prevBufferLen = this.writeBuffer.size();
-            this.transport.send(this.writeBuffer.toArray(new Packet[this.writeBuffer.size()]));
+            if (this.coalesceTimer != null) {
+                this.coalesceTimer.cancel(false);
+                this.coalesceTimer = null;
+            }
+            this.unflushedBytes = 0;
+
+            Packet[] packets = this.writablePackets(this.prioritize());
+            if (packets.length == 0) {
+                // every message was dropped
+                if (this.writeBuffer.isEmpty()) {
+                    this.emit(EVENT_DRAIN);
+                }
+                return;
+            }
+            List<Runnable> flushed = null;
+            if (this.flushCallbacks > 0) {
+                flushed = new ArrayList<>();
+                ListIterator<Object> callbacks = this.writeCallbacks.listIterator();
+                for (int i = 0; i < packets.length; i++) {
+                    Object callback = callbacks.next();
+                    if (callback instanceof Runnable) {
+                        flushed.add((Runnable) callback);
+                        callbacks.set(null);
+                    } else if (callback instanceof HeldWrite && ((HeldWrite) callback).callback instanceof Runnable) {
+                        flushed.add((Runnable) ((HeldWrite) callback).callback);
+                        ((HeldWrite) callback).callback = null;
+                    }
+                }
+                this.flushCallbacks -= flushed.size();
+            }
+
+            this.prevBufferLen = packets.length;
+            this.transport.send(packets);
             this.emit(EVENT_FLUSH);
+            if (flushed != null) {
+                for (Runnable fn : flushed) {
+                    fn.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the packets to flush first to the front of the write buffer, when messages of several
+     * priorities are buffered: each lane in turn, from {@link Priority#HIGH} to
+     * {@link Priority#LOW}, takes its messages in order up to its budget of bytes. A budget left
+     * over for a message too large is carried over to the next flush, like deficit round robin,
+     * and flushes take every lane once at least. Other packets than messages, e.g. pings, go
+     * first.
+     *
+     * @return the number of packets to flush.
+     */
+    private int prioritize() {
+        Packet[] packets = this.writeBuffer.toArray(new Packet[0]);
+        Object[] callbacks = this.writeCallbacks.toArray();
+        Packet[] current = new Packet[packets.length];
+        int[] lanes = new int[packets.length];
+        int active = 0;
+        for (int i = 0; i < packets.length; i++) {
+            current[i] = current(packets[i], callbacks[i]);
+            lanes[i] = laneOf(current[i], callbacks[i]);
+            active |= 1 << lanes[i];
+        }
+        if (Integer.bitCount(active) < 2) {
+            Arrays.fill(this.laneDeficits, 0);
+            return packets.length;
+        }
+
+        boolean[] selected = new boolean[packets.length];
+        int[] heads = new int[this.laneDeficits.length];
+        int count = 0;
+        while (count == 0) {
+            for (int lane = 0; lane < this.laneDeficits.length; lane++) {
+                if ((active & 1 << lane) == 0) {
+                    this.laneDeficits[lane] = 0;
+                    continue;
+                }
+                this.laneDeficits[lane] += this.priorityBudgets[lane];
+                int i = heads[lane];
+                for (; i < packets.length; i++) {
+                    if (lanes[i] != lane) continue;
+                    Packet packet = current[i];
+                    long length = isBuffered(packet) ? Parser.dataLength(packet) : 0;
+                    if (length > this.laneDeficits[lane]) break;
+                    this.laneDeficits[lane] -= length;
+                    selected[i] = true;
+                    count++;
+                }
+                heads[lane] = i;
+                if (i == packets.length) {
+                    this.laneDeficits[lane] = 0;
+                    active &= ~(1 << lane);
+                }
+            }
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(String.format("flushing %d of %d packets by priority", count, packets.length));
+        }
+        this.writeBuffer.clear();
+        this.writeCallbacks.clear();
+        for (int lane = 0; lane < this.laneDeficits.length; lane++) {
+            for (int i = 0; i < packets.length; i++) {
+                if (selected[i] && lanes[i] == lane) {
+                    this.writeBuffer.add(packets[i]);
+                    this.writeCallbacks.add(callbacks[i]);
+                }
+            }
+        }
+        for (int i = 0; i < packets.length; i++) {
+            if (!selected[i]) {
+                this.writeBuffer.add(packets[i]);
+                this.writeCallbacks.add(callbacks[i]);
+            }
+        }
+        return count;
+    }
+
+    private static int laneOf(Packet packet, Object callback) {
+        if (!isBuffered(packet)) {
+            return Priority.HIGH.ordinal();
+        }
+        return callback instanceof HeldWrite ? ((HeldWrite) callback).priority.ordinal() : Priority.NORMAL.ordinal();
+    }
+
+    /**
+     * Returns the packets to flush among the first packets of the write buffer: all of them, or
+     * over polling as many packets as fit in the payload size the server accepts, and at least
+     * one. The rest is flushed once the request is over. Messages past their deadline or
+     * dropped by the CoDel policy are removed from the buffer instead.
+     *
+     * @param limit the number of packets to consider.
+     */
+    private Packet[] writablePackets(int limit) {
+        int size = this.writeBuffer.size();
+        boolean split = this.maxPayload > 0 && this.transport instanceof Polling;
+        Packet[] packets = new Packet[size];
+        // the separator counted for the last packet makes this one byte conservative
+        long length = 0;
+        int count = 0;
+        long now = 0;
+        int expired = 0;
+        int delayed = 0;
+        List<Object> dropped = null;
+        ListIterator<Packet> buffered = this.writeBuffer.listIterator();
+        ListIterator<Object> callbacks = this.writeCallbacks.listIterator();
+        for (int i = 0; i < limit && buffered.hasNext(); i++) {
+            Packet packet = buffered.next();
+            Object callback = callbacks.next();
+            if (callback instanceof HeldWrite && ((HeldWrite) callback).replaced) {
+                // the latest message of a key is written in place of the first one
+                HeldWrite held = (HeldWrite) callback;
+                packet.release();
+                packet = held.latest;
+                buffered.set(packet);
+                held.replaced = false;
+            }
+            long packetLength = 0;
+            if (split) {
+                packetLength = Parser.encodedPayloadLength(packet, this.payloadOptions);
+                length += packetLength;
+                if (count > 0 && length > this.maxPayload) break;
+            }
+
+            if (callback instanceof HeldWrite) {
+                HeldWrite held = (HeldWrite) callback;
+                if (held.timed) {
+                    if (now == 0) now = System.nanoTime();
+                    boolean expire = held.expires && now - held.deadline >= 0;
+                    // the last message is never dropped for the delay of the others
+                    if (expire || (this.codelTarget > 0 && buffered.hasNext()
+                            && this.codelDrop(now - held.bufferedAt, now))) {
+                        if (expire) expired++; else delayed++;
+                        buffered.remove();
+                        callbacks.remove();
+                        length -= packetLength;
+                        if (held.callback instanceof Runnable) {
+                            this.flushCallbacks--;
+                        } else if (held.callback != null) {
+                            if (dropped == null) dropped = new ArrayList<>();
+                            dropped.add(held.callback);
+                        }
+                        this.discard(packet, held);
+                        continue;
+                    }
+                }
+
+                // flushed messages are not replaced nor reordered anymore
+                if (held.key != null) {
+                    this.latestPackets.remove(held.key);
+                }
+                if (held.record < 0) {
+                    callbacks.set(held.callback);
+                }
+            }
+            packets[count++] = packet;
+        }
+
+        if (expired + delayed > 0) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(String.format("dropping %d expired and %d delayed packets", expired, delayed));
+            }
+            if (dropped != null) {
+                for (Object callback : dropped) {
+                    fail(callback, new TimeoutException("message dropped after waiting too long"));
+                }
+            }
+            if (expired > 0) this.onDropped("expired", expired);
+            if (delayed > 0) this.onDropped("queue delay", delayed);
+            this.updateWatermark();
+        }
+
+        if (count < this.writeBuffer.size() && logger.isLoggable(Level.FINE)) {
+            logger.fine(String.format("splitting flush, %d of %d packets fit in %d bytes",
+                    count, this.writeBuffer.size(), this.maxPayload));
+        }
+        if (count < size) {
+            packets = Arrays.copyOf(packets, count);
+        }
+        return packets;
+    }
+
+    /**
+     * Decides whether to drop a message by how long it waited in the write buffer, with the
+     * controlled delay algorithm of RFC 8289 applied to the messages of each flush in turn: once
+     * messages have waited more than {@link Options#codelTarget} for
+     * {@link Options#codelInterval}, a message is dropped, then more at a rate increasing with
+     * the square root of the drops until the delay is back under the target.
+     */
+    private boolean codelDrop(long sojourn, long now) {
+        boolean okToDrop = false;
+        if (sojourn < this.codelTarget) {
+            this.codelFirstAboveTime = 0;
+        } else {
+            if (this.codelFirstAboveTime == 0) {
+                // messages flushed in bulk after a stall tell how long they were above the target
+                this.codelFirstAboveTime = now - (sojourn - this.codelTarget) + this.codelInterval;
+            }
+            okToDrop = now - this.codelFirstAboveTime >= 0;
+        }
+
+        if (this.codelDropping) {
+            if (!okToDrop) {
+                this.codelDropping = false;
+            } else if (now - this.codelDropNext >= 0) {
+                this.codelCount++;
+                this.codelDropNext = this.codelControlLaw(this.codelDropNext);
+                return true;
+            }
+            return false;
+        }
+
+        if (okToDrop) {
+            this.codelDropping = true;
+            // drop at about the last rate if the policy was dropping shortly before
+            int delta = this.codelCount - this.codelLastCount;
+            this.codelCount = delta > 1 && now - this.codelDropNext < 16 * this.codelInterval ? delta : 1;
+            this.codelLastCount = this.codelCount;
+            this.codelDropNext = this.codelControlLaw(now);
+            return true;
+        }
+        return false;
+    }
+
+    private long codelControlLaw(long time) {
+        return time + (long) (this.codelInterval / Math.sqrt(this.codelCount));
+    }
+
+    /**
+     * Flushes newly sent messages, or with {@link Options#coalesceDelay} over WebSocket, waits
+     * for more messages to flush them together, like Nagle's algorithm: until the delay expires or
+     * {@link Options#coalesceMaxBytes} are buffered. With {@link Options#adaptiveCoalescing}, it
+     * only waits while messages are sent more often than the delay.
+     */
+    private void flushSoon() {
+        if (this.isCorked()) return;
+
+        if (this.coalesceDelay <= 0 || this.readyState != ReadyState.OPEN || !(this.transport instanceof WebSocket)
+                || this.unflushedBytes >= this.coalesceMaxBytes
+                || (this.adaptiveCoalescing && (this.bufferedInterval < 0 || this.bufferedInterval >= this.coalesceDelay))) {
+            this.flush();
+            return;
+        }
+
+        if (this.coalesceTimer == null) {
+            final Socket self = this;
+            this.coalesceTimer = this.getHeartbeatScheduler().schedule(() -> EventThread.exec(() -> {
+                self.coalesceTimer = null;
+                if (!self.isCorked()) {
+                    self.flush();
+                }
+            }), this.coalesceDelay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void onBufferedForCoalescing(Packet packet) {
+        this.unflushedBytes += Parser.dataLength(packet);
+        if (this.adaptiveCoalescing) {
+            long now = System.nanoTime();
+            if (this.lastBufferedAt != 0) {
+                // an idle period counts as twice the delay at most, so that bursts are quickly detected
+                long interval = Math.min(now - this.lastBufferedAt, 2 * this.coalesceDelay);
+                this.bufferedInterval = this.bufferedInterval < 0 ? interval :
+                        this.bufferedInterval + (interval - this.bufferedInterval) / 4;
+            }
+            this.lastBufferedAt = now;
         }
     }
 
@@ -582,6 +1135,16 @@ public class Socket extends Emitter {
         this.send(msg, null);
     }
 
+    /**
+     * Sends a text message without copying it, e.g. a message received with
+     * {@link Options#lazyMessages} that is forwarded as is.
+     *
+     * @param msg
+     */
+    public void send(CharSequence msg) {
+        this.send(msg, null);
+    }
+
     /**
      * Sends a message.
      *
@@ -589,115 +1152,935 @@ public class Socket extends Emitter {
      * @param fn callback to be called on drain
      */
     public void send(final String msg, final Runnable fn) {
-        EventThread.exec(() -> Socket.this.sendPacket(Packet.MESSAGE, msg, fn));
+        this.enqueue(this.textPacket(PacketType.MESSAGE, msg), fn);
+    }
+
+    public void send(final CharSequence msg, final Runnable fn) {
+        this.enqueue(this.textPacket(PacketType.MESSAGE, msg), fn);
     }
 
     public void send(final byte[] msg, final Runnable fn) {
-        EventThread.exec(() -> Socket.this.sendPacket(Packet.MESSAGE, msg, fn));
+        this.enqueue(this.binaryPacket(msg), fn);
     }
 
-    private void sendPacket(String type, Runnable fn) {
-        this.sendPacket(new Packet(type), fn);
+    /**
+     * Sends a binary message made of parts, e.g. a header, metadata and a body held in separate
+     * buffers, without concatenating them first: the remaining bytes of the parts are gathered
+     * into the buffer the transport sends, which over polling is Base64-encoded straight into
+     * the request body. The positions of the parts are left unchanged.
+     *
+     * @param parts
+     */
+    public void send(ByteBuffer... parts) {
+        this.enqueue(gatherPacket(parts), null);
     }
 
-    private void sendPacket(String type, String data, Runnable fn) {
-        Packet<String> packet = new Packet<>(type, data);
-        sendPacket(packet, fn);
+    /**
+     * Sends the bytes of a buffer as a binary message, without copying them. The buffer is
+     * consumed by the socket and must not be used anymore.
+     *
+     * @param msg
+     */
+    public void send(Buffer msg) {
+        this.enqueue(new BufferPacket(msg, true), null);
     }
 
-    private void sendPacket(String type, byte[] data, Runnable fn) {
-        Packet<byte[]> packet = new Packet<>(type, data);
-        sendPacket(packet, fn);
+    /**
+     * Sends a message serialized by {@link Options#messageCodec}.
+     *
+     * @param msg
+     * @throws IllegalStateException if the socket has no codec.
+     * @throws UncheckedIOException if the codec fails to serialize the message.
+     */
+    public void send(Object msg) {
+        this.send(msg, (Runnable) null);
     }
 
-    private void sendPacket(Packet packet, final Runnable fn) {
-        if (ReadyState.CLOSING == this.readyState || ReadyState.CLOSED == this.readyState) {
+    @SuppressWarnings("unchecked")
+    public void send(Object msg, Runnable fn) {
+        if (msg instanceof ByteBuffer || msg instanceof Buffer) {
+            // send(ByteBuffer...) with a single part resolves to this method
+            this.enqueue(this.messagePacket(msg), fn);
             return;
         }
-
-        this.emit(EVENT_PACKET_CREATE, packet);
-        this.writeBuffer.offer(packet);
-        if (null != fn) {
-            this.once(EVENT_FLUSH, args -> fn.run());
+        MessageCodec<Object> codec = (MessageCodec<Object>) this.messageCodec;
+        if (codec == null) {
+            throw new IllegalStateException("no message codec to send " + msg.getClass().getName());
         }
-        this.flush();
+        this.send(msg, codec, fn);
     }
 
     /**
-     * Disconnects the client.
+     * Sends a message serialized by the codec. The message is serialized on the calling thread,
+     * straight into the buffer the transport sends.
      *
-     * @return a reference to to this object.
+     * @param msg
+     * @param codec
+     * @param fn callback to be called on drain
+     * @throws UncheckedIOException if the codec fails to serialize the message.
      */
-    public Socket close() {
-        EventThread.exec(new Runnable() {
-            @Override
-            public void run() {
-                if (Socket.this.readyState == ReadyState.OPENING || Socket.this.readyState == ReadyState.OPEN) {
-                    Socket.this.readyState = ReadyState.CLOSING;
+    public <T> void send(T msg, MessageCodec<? super T> codec, final Runnable fn) {
+        this.enqueue(this.bufferPacket(msg, codec), fn);
+    }
 
-                    final Socket self = Socket.this;
+    public void send(PreEncodedMessage msg) {
+        this.send(msg, null);
+    }
 
-                    final Runnable close = () -> {
-                        self.onClose("forced close");
-                        logger.fine("socket closing - telling transport to close");
-                        self.transport.close();
-                    };
+    /**
+     * Sends a message encoded beforehand, without encoding it again.
+     *
+     * @param msg
+     * @param fn callback to be called on drain
+     */
+    public void send(final PreEncodedMessage msg, final Runnable fn) {
+        this.enqueue(msg.packet, fn);
+    }
 
-                    final Listener[] cleanupAndClose = new Listener[1];
-                    cleanupAndClose[0] = args -> {
-                        self.off(EVENT_UPGRADE, cleanupAndClose[0]);
-                        self.off(EVENT_UPGRADE_ERROR, cleanupAndClose[0]);
-                        close.run();
-                    };
+    /**
+     * Sends a message which is dropped instead of written if it is still buffered once the TTL
+     * is over, e.g. a price which is worthless once outdated. The message is of any type
+     * accepted by {@link #sendAll(Collection)}.
+     *
+     * @param msg
+     * @param ttl
+     * @param unit
+     * @throws IllegalStateException if the message needs a codec and the socket has none.
+     * @throws UncheckedIOException if the codec fails to serialize the message.
+     */
+    public void send(Object msg, long ttl, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(ttl);
+        this.enqueue(this.messagePacket(msg), new HeldWrite(null, deadline));
+    }
 
-                    final Runnable waitForUpgrade = () -> {
-                        // wait for updade to finish since we can't send packets while pausing a transport
-                        self.once(EVENT_UPGRADE, cleanupAndClose[0]);
-                        self.once(EVENT_UPGRADE_ERROR, cleanupAndClose[0]);
-                    };
+    /**
+     * Sends a message and returns a future completed once the transport has written it, e.g.
+     * once the polling request carrying it has succeeded. The future fails with
+     * {@link WriteBufferFullException} if the message is dropped or rejected, with
+     * {@link TimeoutException} if it is dropped for having waited too long, and with
+     * {@link EngineIOException} if the socket closes first. It is completed on the event thread.
+     *
+     * @param msg
+     * @return the future.
+     */
+    public CompletableFuture<Void> sendAsync(String msg) {
+        return this.enqueueAsync(this.textPacket(PacketType.MESSAGE, msg));
+    }
 
-                    if (!Socket.this.writeBuffer.isEmpty()) {
-                        Socket.this.once(EVENT_DRAIN, args -> {
-                            if (Socket.this.upgrading) {
-                                waitForUpgrade.run();
-                            } else {
-                                close.run();
-                            }
-                        });
-                    } else if (Socket.this.upgrading) {
-                        waitForUpgrade.run();
-                    } else {
-                        close.run();
-                    }
-                }
-            }
-        });
-        return this;
+    public CompletableFuture<Void> sendAsync(CharSequence msg) {
+        return this.enqueueAsync(this.textPacket(PacketType.MESSAGE, msg));
     }
 
-    private void onError(Exception err) {
-        if (logger.isLoggable(Level.FINE)) {
-            logger.fine(String.format("socket error %s", err));
+    public CompletableFuture<Void> sendAsync(byte[] msg) {
+        return this.enqueueAsync(this.binaryPacket(msg));
+    }
+
+    public CompletableFuture<Void> sendAsync(ByteBuffer... parts) {
+        return this.enqueueAsync(gatherPacket(parts));
+    }
+
+    public CompletableFuture<Void> sendAsync(Buffer msg) {
+        return this.enqueueAsync(new BufferPacket(msg, true));
+    }
+
+    /**
+     * Sends a message serialized by {@link Options#messageCodec}, see {@link #sendAsync(String)}.
+     *
+     * @param msg
+     * @return the future.
+     * @throws IllegalStateException if the socket has no codec.
+     * @throws UncheckedIOException if the codec fails to serialize the message.
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Void> sendAsync(Object msg) {
+        if (msg instanceof ByteBuffer || msg instanceof Buffer) {
+            return this.enqueueAsync(this.messagePacket(msg));
         }
-        Socket.priorWebsocketSuccess = false;
-        this.emit(EVENT_ERROR, err);
-        this.onClose("transport error", err);
+        MessageCodec<Object> codec = (MessageCodec<Object>) this.messageCodec;
+        if (codec == null) {
+            throw new IllegalStateException("no message codec to send " + msg.getClass().getName());
+        }
+        return this.sendAsync(msg, codec);
     }
 
-    private void onClose(String reason) {
-        this.onClose(reason, null);
+    public <T> CompletableFuture<Void> sendAsync(T msg, MessageCodec<? super T> codec) {
+        return this.enqueueAsync(this.bufferPacket(msg, codec));
     }
 
-    private void onClose(String reason, Exception desc) {
-        if (ReadyState.OPENING == this.readyState || ReadyState.OPEN == this.readyState || ReadyState.CLOSING == this.readyState) {
-            if (logger.isLoggable(Level.FINE)) {
-                logger.fine(String.format("socket close with reason: %s", reason));
-            }
-            final Socket self = this;
+    public CompletableFuture<Void> sendAsync(PreEncodedMessage msg) {
+        return this.enqueueAsync(msg.packet);
+    }
 
-            // clear timers
-            if (this.pingTimeoutTimer != null) {
-                this.pingTimeoutTimer.cancel(false);
+    /**
+     * Sends a message with a TTL, see {@link #send(Object, long, TimeUnit)} and
+     * {@link #sendAsync(String)}.
+     *
+     * @param msg
+     * @param ttl
+     * @param unit
+     * @return the future.
+     */
+    public CompletableFuture<Void> sendAsync(Object msg, long ttl, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(ttl);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            this.enqueue(this.messagePacket(msg), new HeldWrite(future, deadline));
+        } catch (WriteBufferFullException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Sends a message in a priority lane, so that urgent messages are not held up by bulk ones:
+     * while messages of several priorities are buffered, each flush takes the messages of each
+     * lane in turn, from {@link Priority#HIGH} to {@link Priority#LOW}, up to the budget of the
+     * lane in {@link Options#priorityBudgets}. Messages keep their order within a lane. The
+     * message is of any type accepted by {@link #sendAll(Collection)}.
+     *
+     * @param msg
+     * @param priority
+     * @throws IllegalStateException if the message needs a codec and the socket has none.
+     * @throws UncheckedIOException if the codec fails to serialize the message.
+     */
+    public void sendWithPriority(Object msg, Priority priority) {
+        this.sendWithPriority(msg, priority, null);
+    }
+
+    public void sendWithPriority(Object msg, Priority priority, Runnable fn) {
+        this.enqueue(this.messagePacket(msg), fn, priority);
+    }
+
+    public CompletableFuture<Void> sendAsyncWithPriority(Object msg, Priority priority) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            this.enqueue(this.messagePacket(msg), future, priority);
+        } catch (WriteBufferFullException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Sends the latest value of a stream of messages, e.g. of a position or a gauge: the message
+     * replaces the message sent with an equal key before, if that one is not flushed yet, and
+     * takes its place among the other messages. Otherwise it is sent like other messages. The
+     * message is of any type accepted by {@link #sendAll(Collection)}.
+     * <p>
+     * These messages are counted in the write buffer but never blocked, rejected nor dropped
+     * by {@link Options#overflowPolicy}, since they can't outnumber their keys.
+     *
+     * @param key
+     * @param msg
+     * @throws IllegalStateException if the message needs a codec and the socket has none.
+     * @throws UncheckedIOException if the codec fails to serialize the message.
+     */
+    public void sendLatest(Object key, Object msg) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        Packet packet = this.messagePacket(msg);
+        this.account(packet);
+
+        if (EventThread.isCurrent()) {
+            this.sendPacket(packet, null, key, Priority.NORMAL);
+        } else {
+            this.offer(new QueuedWrite(packet, null, key, Priority.NORMAL));
+        }
+    }
+
+    /**
+     * Sends a batch of messages at once: they are handed over to the event thread together and
+     * flushed together, e.g. in a single polling request. Each message is either a
+     * {@link String}, a {@link CharSequence}, a {@code byte[]}, binary parts as a
+     * {@link ByteBuffer} or a {@code ByteBuffer[]} (see {@link #send(ByteBuffer...)}), a
+     * {@link Buffer} (see {@link #send(Buffer)}), a {@link PreEncodedMessage}, or else is
+     * serialized by {@link Options#messageCodec}.
+     * <p>
+     * Messages are accounted in the write buffer one by one. When the buffer is full and the
+     * policy is to block or fail, the messages before are sent first.
+     *
+     * @param msgs
+     * @throws WriteBufferFullException if the buffer is full, depending on
+     *                                  {@link Options#overflowPolicy}.
+     * @throws IllegalStateException if a message needs a codec and the socket has none.
+     * @throws UncheckedIOException if the codec fails to serialize a message.
+     */
+    public void sendAll(Collection<?> msgs) {
+        List<Packet> batch = new ArrayList<>(msgs.size());
+        for (Object msg : msgs) {
+            Packet packet = this.messagePacket(msg);
+            if (!this.reserve(packet, true)) {
+                if (this.overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                    logger.fine("write buffer full, dropping packet");
+                    packet.release();
+                    this.onDropped("overflow", 1);
+                    continue;
+                }
+                // make room for it with the messages before, if any
+                this.sendBatch(batch);
+                batch = new ArrayList<>();
+                try {
+                    this.reserve(packet, false);
+                } catch (WriteBufferFullException e) {
+                    packet.release();
+                    throw e;
+                }
+            }
+            batch.add(packet);
+        }
+        this.sendBatch(batch);
+    }
+
+    private void sendBatch(final List<Packet> batch) {
+        if (batch.isEmpty()) return;
+
+        EventThread.exec(() -> {
+            Socket.this.drainWriteQueue();
+            for (Packet packet : batch) {
+                Socket.this.addToWriteBuffer(packet, null, null, Priority.NORMAL);
+            }
+            Socket.this.onBuffered();
+            Socket.this.flushSoon();
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private Packet messagePacket(Object msg) {
+        if (msg instanceof CharSequence) {
+            return this.textPacket(PacketType.MESSAGE, (CharSequence) msg);
+        } else if (msg instanceof byte[]) {
+            return this.binaryPacket((byte[]) msg);
+        } else if (msg instanceof ByteBuffer) {
+            return gatherPacket((ByteBuffer) msg);
+        } else if (msg instanceof ByteBuffer[]) {
+            return gatherPacket((ByteBuffer[]) msg);
+        } else if (msg instanceof Buffer) {
+            return new BufferPacket((Buffer) msg, true);
+        } else if (msg instanceof PreEncodedMessage) {
+            return ((PreEncodedMessage) msg).packet;
+        }
+
+        MessageCodec<Object> codec = (MessageCodec<Object>) this.messageCodec;
+        if (codec == null) {
+            throw new IllegalStateException("no message codec to send " + msg.getClass().getName());
+        }
+        return this.bufferPacket(msg, codec);
+    }
+
+    /**
+     * Holds the messages sent from now on in the write buffer until {@link #uncork()} is called
+     * as many times as this method, so that they are flushed together, even if the socket opens
+     * or upgrades meanwhile. Closing the socket flushes them anyway.
+     *
+     * @return a reference to this object.
+     */
+    public Socket cork() {
+        this.corks.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Releases a {@link #cork()}, flushing the held messages once no cork is left.
+     *
+     * @return a reference to this object.
+     */
+    public Socket uncork() {
+        int corks;
+        do {
+            corks = this.corks.get();
+            if (corks == 0) return this;
+        } while (!this.corks.compareAndSet(corks, corks - 1));
+
+        if (corks == 1) {
+            EventThread.exec(() -> {
+                Socket.this.drainWriteQueue();
+                Socket.this.flush();
+            });
+        }
+        return this;
+    }
+
+    private boolean isCorked() {
+        // closing flushes held messages anyway
+        return this.corks.get() > 0 && this.readyState != ReadyState.CLOSING;
+    }
+
+    /**
+     * Sends a message to every socket of a group, encoding it once for all of them.
+     *
+     * @param sockets
+     * @param msg
+     */
+    public static void broadcast(Collection<? extends Socket> sockets, PreEncodedMessage msg) {
+        broadcast(sockets, msg, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Sends a message to every socket of a group, encoding it once for all of them. The forms
+     * needed by the transports of the sockets are encoded up front on the calling thread, and on
+     * the executor when both WebSocket frames and polling payloads are needed, so that writing
+     * the message costs the event thread the same for every socket.
+     *
+     * @param sockets
+     * @param msg
+     * @param executor runs the encoding of the polling form in parallel.
+     */
+    public static void broadcast(Collection<? extends Socket> sockets, PreEncodedMessage msg, Executor executor) {
+        final Socket[] targets = sockets.toArray(new Socket[0]);
+        final PreEncodedPacket packet = msg.packet;
+
+        boolean frames = false;
+        boolean payloads = false;
+        for (Socket socket : targets) {
+            // only a hint off the event thread, a form no one asked for is encoded once written
+            Transport transport = socket.transport;
+            if (transport instanceof Polling) {
+                payloads = true;
+                frames |= socket.upgrading;
+            } else if (transport != null) {
+                frames = true;
+            }
+            if (frames && payloads) break;
+        }
+
+        if (frames && payloads) {
+            CompletableFuture<ByteString> payloadFrame = CompletableFuture.supplyAsync(packet::payloadFrame, executor);
+            packet.frame();
+            payloadFrame.join();
+        } else if (frames) {
+            packet.frame();
+        } else if (payloads) {
+            packet.payloadFrame();
+        }
+
+        EventThread.exec(() -> {
+            for (Socket socket : targets) {
+                if (socket.reserve(packet, true)) {
+                    socket.sendPacket(packet, null);
+                } else {
+                    socket.onDropped("overflow", 1);
+                }
+            }
+        });
+    }
+
+    private void sendPacket(PacketType type, Runnable fn) {
+        this.sendPacket(this.textPacket(type, null), fn);
+    }
+
+    private void sendPacket(Packet packet, Object callback) {
+        this.sendPacket(packet, callback, null, Priority.NORMAL);
+    }
+
+    private void sendPacket(Packet packet, Object callback, Object key, Priority priority) {
+        // packets queued before come first
+        this.drainWriteQueue();
+        this.addToWriteBuffer(packet, callback, key, priority);
+        this.onBuffered();
+        this.flushSoon();
+    }
+
+    /**
+     * Hands a packet over to the event thread without waiting for it: the packet is added to the
+     * write queue and the event thread moves every queued packet to the write buffer at once.
+     * While the queue is full the calling thread waits for the event thread to catch up, see
+     * {@link #offer(Object)}.
+     *
+     * @param packet
+     * @param callback a {@link Runnable} to run on flush, a {@link CompletableFuture} to complete
+     *                 on drain, either of them or null in a {@link HeldWrite}, or null.
+     */
+    private void enqueue(Packet packet, Object callback) {
+        this.enqueue(packet, callback, Priority.NORMAL);
+    }
+
+    private void enqueue(Packet packet, Object callback, Priority priority) {
+        if (priority == null) {
+            throw new NullPointerException("priority");
+        }
+
+        boolean reserved;
+        try {
+            reserved = this.reserve(packet, false);
+        } catch (WriteBufferFullException e) {
+            packet.release();
+            throw e;
+        }
+        if (!reserved) {
+            logger.fine("write buffer full, dropping packet");
+            packet.release();
+            fail(callback, new WriteBufferFullException("write buffer full, message dropped"));
+            this.onDropped("overflow", 1);
+            return;
+        }
+
+        if (EventThread.isCurrent()) {
+            this.sendPacket(packet, callback, null, priority);
+            return;
+        }
+
+        this.offer(callback != null || priority != Priority.NORMAL ?
+                new QueuedWrite(packet, callback, null, priority) : packet);
+    }
+
+    /**
+     * Adds a write to the write queue. While the queue is full, parks with a growing backoff
+     * so as to leave the CPU to the event thread, up to {@link Options#overflowTimeout}.
+     *
+     * @param write
+     * @throws WriteBufferFullException if the queue is still full after the timeout.
+     */
+    private void offer(Object write) {
+        long deadline = 0;
+        long backoff = MIN_OFFER_BACKOFF;
+        while (!this.writeQueue.offer(write)) {
+            long now = System.nanoTime();
+            if (deadline == 0) {
+                deadline = now + TimeUnit.MILLISECONDS.toNanos(this.overflowTimeout);
+            } else if (now - deadline >= 0) {
+                this.releaseBuffered(write instanceof QueuedWrite ? ((QueuedWrite) write).packet : (Packet) write);
+                throw new WriteBufferFullException("timed out waiting for the event thread");
+            }
+            this.scheduleWriteQueueDrain();
+            LockSupport.parkNanos(this, backoff);
+            backoff = Math.min(backoff * 2, MAX_OFFER_BACKOFF);
+        }
+        this.scheduleWriteQueueDrain();
+    }
+
+    private CompletableFuture<Void> enqueueAsync(Packet packet) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            this.enqueue(packet, future);
+        } catch (WriteBufferFullException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Returns the number of messages dropped instead of written so far, see {@link #EVENT_DROP}.
+     *
+     * @return the number of dropped messages.
+     */
+    public long droppedMessages() {
+        return this.droppedMessages.get();
+    }
+
+    private void onDropped(final String reason, final int count) {
+        this.droppedMessages.addAndGet(count);
+        if (EventThread.isCurrent()) {
+            this.emit(EVENT_DROP, reason, count);
+        } else {
+            EventThread.exec(() -> Socket.this.emit(EVENT_DROP, reason, count));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void complete(Object callback) {
+        if (callback instanceof CompletableFuture) {
+            ((CompletableFuture<Void>) callback).complete(null);
+        }
+    }
+
+    private static void fail(Object callback, Exception err) {
+        if (callback instanceof HeldWrite) {
+            callback = ((HeldWrite) callback).callback;
+        }
+        if (callback instanceof CompletableFuture) {
+            ((CompletableFuture<?>) callback).completeExceptionally(err);
+        }
+    }
+
+    private void scheduleWriteQueueDrain() {
+        if (!this.writeQueueScheduled.get() && this.writeQueueScheduled.compareAndSet(false, true)) {
+            EventThread.nextTick(this.drainWriteQueue);
+        }
+    }
+
+    private int drainWriteQueue() {
+        int count = this.writeQueue.drain(this.onQueuedWrite);
+        if (count > 0) {
+            this.onBuffered();
+        }
+        return count;
+    }
+
+    private void onQueuedWrite(Object write) {
+        if (write instanceof QueuedWrite) {
+            QueuedWrite queued = (QueuedWrite) write;
+            this.addToWriteBuffer(queued.packet, queued.callback, queued.key, queued.priority);
+        } else {
+            this.addToWriteBuffer((Packet) write, null, null, Priority.NORMAL);
+        }
+    }
+
+    private void addToWriteBuffer(Packet packet, Object callback, Object key, Priority priority) {
+        if (ReadyState.CLOSING == this.readyState || ReadyState.CLOSED == this.readyState) {
+            this.releaseBuffered(packet);
+            fail(callback, new EngineIOException("socket closed"));
+            return;
+        }
+
+        this.emit(EVENT_PACKET_CREATE, packet);
+        if (this.coalesceDelay > 0) {
+            this.onBufferedForCoalescing(packet);
+        }
+
+        if (key != null) {
+            HeldWrite latest = this.latestPackets.get(key);
+            if (latest != null) {
+                this.replace(latest, packet);
+                return;
+            }
+        }
+
+        HeldWrite held = callback instanceof HeldWrite ? (HeldWrite) callback : null;
+        if (isBuffered(packet)) {
+            if (key != null || priority != Priority.NORMAL) {
+                if (held == null) held = new HeldWrite(callback);
+                held.key = key;
+                held.priority = priority;
+            }
+            if (this.journal != null) {
+                long record = this.journal.append(packet);
+                if (record >= 0) {
+                    if (held == null) held = new HeldWrite(callback);
+                    held.record = record;
+                }
+            }
+            if (key == null && (held != null && held.expires || this.messageTtl > 0 || this.codelTarget > 0)) {
+                long now = System.nanoTime();
+                if (held == null) held = new HeldWrite(callback);
+                if (!held.expires && this.messageTtl > 0) {
+                    held.deadline = now + this.messageTtl;
+                    held.expires = true;
+                }
+                held.timed = true;
+                held.bufferedAt = now;
+            }
+            if (key != null) {
+                held.latest = packet;
+                this.latestPackets.put(key, held);
+            }
+        }
+
+        if ((held != null ? held.callback : callback) instanceof Runnable) {
+            this.flushCallbacks++;
+        }
+        this.writeBuffer.offer(packet);
+        this.writeCallbacks.offer(held != null ? held : callback);
+    }
+
+    // replaces the message of a key not flushed yet, swapped in when the buffered one is flushed
+    private void replace(HeldWrite held, Packet packet) {
+        Packet replaced = held.latest;
+        held.latest = packet;
+        if (this.coalesceDelay > 0) {
+            this.unflushedBytes -= Parser.dataLength(replaced);
+        }
+        if (held.record >= 0) {
+            this.journal.done(held.record);
+            held.record = this.journal.append(packet);
+        }
+        // the first message stays in the write buffer until it is swapped
+        if (held.replaced) {
+            this.releaseBuffered(replaced);
+        } else {
+            this.releaseAccounting(replaced);
+            held.replaced = true;
+        }
+    }
+
+    // the packet to write for an entry of the write buffer, the latest message of its key
+    private static Packet current(Packet packet, Object callback) {
+        return callback instanceof HeldWrite && ((HeldWrite) callback).replaced ? ((HeldWrite) callback).latest : packet;
+    }
+
+    /**
+     * Returns the number of bytes of messages sent but not written yet, counting text as chars.
+     *
+     * @return the buffered amount.
+     */
+    public long bufferedAmount() {
+        return this.bufferedBytes.get();
+    }
+
+    /**
+     * Counts a message in the write buffer, if there is room for it or according to
+     * {@link Options#overflowPolicy}. A message is always accepted by an empty buffer.
+     *
+     * @param packet
+     * @param broadcast whether to drop the message rather than block or fail.
+     * @return false if the message must be dropped.
+     * @throws WriteBufferFullException if the message is rejected.
+     */
+    private boolean reserve(Packet packet, boolean broadcast) {
+        if (!isBuffered(packet)) {
+            return true;
+        }
+
+        long size = Parser.dataLength(packet);
+        boolean waited = false;
+        long deadline = 0;
+        while (true) {
+            long bytes = this.bufferedBytes.addAndGet(size);
+            int packets = this.bufferedPackets.incrementAndGet();
+            boolean fits = packets == 1 || this.overflowPolicy == OverflowPolicy.DROP_OLDEST || !this.isOverLimit(bytes, packets);
+            if (fits && this.memoryBudget != null) {
+                if (packets == 1 || this.overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                    this.memoryBudget.reserve(size);
+                } else if (!this.memoryBudget.tryReserve(size)) {
+                    fits = false;
+                }
+            }
+            if (fits) {
+                return true;
+            }
+            this.bufferedBytes.addAndGet(-size);
+            this.bufferedPackets.decrementAndGet();
+
+            if (broadcast || this.overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                return false;
+            }
+            if (this.overflowPolicy == OverflowPolicy.FAIL) {
+                throw new WriteBufferFullException("write buffer full");
+            }
+            if (EventThread.isCurrent()) {
+                // the buffer can't drain while the event thread waits
+                throw new WriteBufferFullException("write buffer full, can't wait on the event thread");
+            }
+
+            long now = System.nanoTime();
+            if (!waited) {
+                waited = true;
+                deadline = now + TimeUnit.MILLISECONDS.toNanos(this.overflowTimeout);
+            } else if (now - deadline >= 0) {
+                throw new WriteBufferFullException("timed out waiting for room in write buffer");
+            }
+            try {
+                packets = this.bufferedPackets.get();
+                if (packets > 0 && this.isOverLimit(this.bufferedBytes.get() + size, packets + 1)) {
+                    synchronized (this.bufferLock) {
+                        this.bufferWaiters++;
+                        try {
+                            packets = this.bufferedPackets.get();
+                            if (packets > 0 && this.isOverLimit(this.bufferedBytes.get() + size, packets + 1)) {
+                                TimeUnit.NANOSECONDS.timedWait(this.bufferLock, deadline - now);
+                            }
+                        } finally {
+                            this.bufferWaiters--;
+                        }
+                    }
+                } else if (this.memoryBudget != null) {
+                    // the sockets sharing the budget release it
+                    this.memoryBudget.await(size, deadline - now);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new WriteBufferFullException("interrupted while waiting for room in write buffer");
+            }
+        }
+    }
+
+    // counts a message in the write buffer regardless of the limits
+    private void account(Packet packet) {
+        if (isBuffered(packet)) {
+            long size = Parser.dataLength(packet);
+            this.bufferedBytes.addAndGet(size);
+            this.bufferedPackets.incrementAndGet();
+            if (this.memoryBudget != null) {
+                this.memoryBudget.reserve(size);
+            }
+        }
+    }
+
+    private boolean isOverLimit(long bytes, int packets) {
+        return (this.maxBufferedBytes > 0 && bytes > this.maxBufferedBytes) ||
+                (this.maxBufferedPackets > 0 && packets > this.maxBufferedPackets);
+    }
+
+    private static boolean isBuffered(Packet packet) {
+        return packet.packetType() == PacketType.MESSAGE;
+    }
+
+    private void releaseBuffered(Packet packet) {
+        this.releaseAccounting(packet);
+        packet.release();
+    }
+
+    private void releaseAccounting(Packet packet) {
+        if (isBuffered(packet)) {
+            long size = Parser.dataLength(packet);
+            this.bufferedBytes.addAndGet(-size);
+            this.bufferedPackets.decrementAndGet();
+            if (this.memoryBudget != null) {
+                this.memoryBudget.release(size);
+            }
+            if (this.bufferWaiters > 0) {
+                synchronized (this.bufferLock) {
+                    this.bufferLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    // releases a message written or dropped, which is not to be sent again
+    private void discard(Packet packet, Object callback) {
+        if (callback instanceof HeldWrite && ((HeldWrite) callback).record >= 0) {
+            this.journal.done(((HeldWrite) callback).record);
+        }
+        this.releaseBuffered(packet);
+    }
+
+    private void onBuffered() {
+        if (this.overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            this.dropOldest();
+        }
+        this.updateWatermark();
+    }
+
+    // drops the oldest messages not flushed yet, but the last one, until the buffer is within limits
+    // and the memory budget
+    private void dropOldest() {
+        ListIterator<Packet> packets = this.writeBuffer.listIterator(this.prevBufferLen);
+        ListIterator<Object> callbacks = this.writeCallbacks.listIterator(this.prevBufferLen);
+        List<Object> dropped = null;
+        int count = 0;
+        while ((this.isOverLimit(this.bufferedBytes.get(), this.bufferedPackets.get()) ||
+                (this.memoryBudget != null && this.memoryBudget.isExhausted())) && packets.hasNext()) {
+            Packet packet = packets.next();
+            Object callback = callbacks.next();
+            if (!packets.hasNext()) break;
+            if (!isBuffered(packet) || (callback instanceof HeldWrite && ((HeldWrite) callback).key != null)) continue;
+
+            packets.remove();
+            callbacks.remove();
+            this.unflushedBytes -= Parser.dataLength(packet);
+            this.discard(packet, callback);
+            if (callback instanceof HeldWrite) {
+                callback = ((HeldWrite) callback).callback;
+            }
+            if (callback instanceof Runnable) {
+                this.flushCallbacks--;
+            } else if (callback != null) {
+                if (dropped == null) dropped = new ArrayList<>();
+                dropped.add(callback);
+            }
+            count++;
+            logger.fine("write buffer full, dropping oldest packet");
+        }
+
+        if (dropped != null) {
+            for (Object callback : dropped) {
+                fail(callback, new WriteBufferFullException("write buffer full, message dropped"));
+            }
+        }
+        if (count > 0) {
+            this.onDropped("overflow", count);
+        }
+    }
+
+    private void updateWatermark() {
+        if (this.highWatermark <= 0) return;
+
+        long bytes = this.bufferedBytes.get();
+        if (!this.aboveHighWatermark && bytes >= this.highWatermark) {
+            this.aboveHighWatermark = true;
+            this.emit(EVENT_HIGH_WATERMARK, bytes);
+        } else if (this.aboveHighWatermark && bytes <= this.lowWatermark) {
+            this.aboveHighWatermark = false;
+            this.emit(EVENT_LOW_WATERMARK, bytes);
+        }
+    }
+
+    /**
+     * Disconnects the client.
+     *
+     * @return a reference to to this object.
+     */
+    public Socket close() {
+        EventThread.exec(new Runnable() {
+            @Override
+            public void run() {
+                if (Socket.this.readyState == ReadyState.OPENING || Socket.this.readyState == ReadyState.OPEN) {
+                    // packets sent before closing are still written
+                    if (Socket.this.drainWriteQueue() > 0) {
+                        Socket.this.flush();
+                    }
+                    Socket.this.readyState = ReadyState.CLOSING;
+
+                    final Socket self = Socket.this;
+
+                    final Runnable close = () -> {
+                        self.onClose("forced close");
+                        logger.fine("socket closing - telling transport to close");
+                        self.transport.close();
+                    };
+
+                    final Listener[] cleanupAndClose = new Listener[1];
+                    cleanupAndClose[0] = args -> {
+                        self.off(EVENT_UPGRADE, cleanupAndClose[0]);
+                        self.off(EVENT_UPGRADE_ERROR, cleanupAndClose[0]);
+                        close.run();
+                    };
+
+                    final Runnable waitForUpgrade = () -> {
+                        // wait for updade to finish since we can't send packets while pausing a transport
+                        self.once(EVENT_UPGRADE, cleanupAndClose[0]);
+                        self.once(EVENT_UPGRADE_ERROR, cleanupAndClose[0]);
+                    };
+
+                    if (!Socket.this.writeBuffer.isEmpty()) {
+                        Socket.this.once(EVENT_DRAIN, args -> {
+                            if (Socket.this.upgrading) {
+                                waitForUpgrade.run();
+                            } else {
+                                close.run();
+                            }
+                        });
+                    } else if (Socket.this.upgrading) {
+                        waitForUpgrade.run();
+                    } else {
+                        close.run();
+                    }
+                }
+            }
+        });
+        return this;
+    }
+
+    private void onError(Exception err) {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(String.format("socket error %s", err));
+        }
+        Socket.priorWebsocketSuccess = false;
+        this.emit(EVENT_ERROR, err);
+        this.onClose("transport error", err);
+    }
+
+    private void onClose(String reason) {
+        this.onClose(reason, null);
+    }
+
+    private void onClose(String reason, Exception desc) {
+        if (ReadyState.OPENING == this.readyState || ReadyState.OPEN == this.readyState || ReadyState.CLOSING == this.readyState) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(String.format("socket close with reason: %s", reason));
+            }
+            final Socket self = this;
+
+            // clear timers
+            if (this.pingTimeoutTimer != null) {
+                this.pingTimeoutTimer.cancel(false);
+            }
+            if (this.pingIntervalTimer != null) {
+                this.pingIntervalTimer.cancel(false);
+            }
+            if (this.coalesceTimer != null) {
+                this.coalesceTimer.cancel(false);
+                this.coalesceTimer = null;
             }
             if (this.heartbeatScheduler != null) {
                 this.heartbeatScheduler.shutdown();
@@ -723,9 +2106,60 @@ public class Socket extends Emitter {
 
             // clear buffers after, so users can still
             // grab the buffers on `close` event
+            Iterator<Object> entries = self.writeCallbacks.iterator();
+            for (Packet packet : self.writeBuffer) {
+                Packet current = current(packet, entries.next());
+                self.releaseBuffered(current);
+                if (current != packet) packet.release();
+            }
+            List<Object> callbacks = new ArrayList<>(self.writeCallbacks);
             self.writeBuffer.clear();
+            self.writeCallbacks.clear();
+            self.latestPackets.clear();
+            self.flushCallbacks = 0;
             self.prevBufferLen = 0;
+            self.unflushedBytes = 0;
+            EngineIOException err = new EngineIOException(reason, desc);
+            for (Object callback : callbacks) {
+                fail(callback, err);
+            }
+            // release the packets still queued
+            self.drainWriteQueue();
+            self.updateWatermark();
+        }
+    }
+
+    private TextPacket textPacket(PacketType type, CharSequence data) {
+        if (this.packetPool != null) {
+            return this.packetPool.text(type, data);
         }
+        return new TextPacket(type, data);
+    }
+
+    private <T> BufferPacket bufferPacket(T msg, MessageCodec<? super T> codec) {
+        Buffer buffer = new Buffer();
+        try {
+            codec.encode(msg, buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new BufferPacket(buffer, codec.isBinary(buffer));
+    }
+
+    private static BufferPacket gatherPacket(ByteBuffer... parts) {
+        Buffer buffer = new Buffer();
+        try {
+            for (ByteBuffer part : parts) {
+                buffer.write(part.duplicate());
+            }
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return new BufferPacket(buffer, true);
+    }
+
+    private BinaryPacket binaryPacket(byte[] data) {
+        return this.packetPool != null ? this.packetPool.binary(data) : new BinaryPacket(data);
     }
 
     /*package*/ List<String > filterUpgrades(List<String> upgrades) {
@@ -759,6 +2193,85 @@ public class Socket extends Emitter {
         });
     }
 
+    /**
+     * What sending a message does when the write buffer is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Waits for room in the buffer up to {@link Options#overflowTimeout}, then throws
+         * {@link WriteBufferFullException}. Throws right away on the event thread.
+         */
+        BLOCK,
+
+        /**
+         * Throws {@link WriteBufferFullException}.
+         */
+        FAIL,
+
+        /**
+         * Drops the oldest messages not being written yet to make room.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Drops the message.
+         */
+        DROP_NEWEST
+    }
+
+    /**
+     * The priority lanes of the write buffer, see {@link Socket#sendWithPriority(Object, Priority)}.
+     */
+    public enum Priority {
+        HIGH, NORMAL, LOW
+    }
+
+    private static final class QueuedWrite {
+
+        final Packet packet;
+        final Object callback;
+        final Object key;
+        final Priority priority;
+
+        QueuedWrite(Packet packet, Object callback, Object key, Priority priority) {
+            this.packet = packet;
+            this.callback = callback;
+            this.key = key;
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * The callback of a message held in the write buffer with more to it than a callback: a
+     * deadline or the time it was buffered, a key it is replaced by, a priority, or a journal
+     * record. A journaled message is held until written, others until flushed.
+     */
+    private static final class HeldWrite {
+
+        Object callback;
+        long deadline;
+        boolean expires;
+        // whether the wait of the message in the write buffer is measured
+        boolean timed;
+        long bufferedAt;
+        Object key;
+        // the latest message of the key, written in place of the buffered one once replaced
+        Packet latest;
+        boolean replaced;
+        Priority priority = Priority.NORMAL;
+        long record = -1;
+
+        HeldWrite(Object callback) {
+            this.callback = callback;
+        }
+
+        HeldWrite(Object callback, long deadline) {
+            this.callback = callback;
+            this.deadline = deadline;
+            this.expires = true;
+        }
+    }
+
     public static class Options extends Transport.Options {
 
         /**
@@ -776,6 +2289,110 @@ public class Socket extends Emitter {
         public String query;
         public Map<String, Transport.Options> transportOptions;
 
+        /**
+         * The codec messages passed to {@link Socket#send(Object)} are serialized with, and
+         * received messages are deserialized with. When set, messages are received in their
+         * encoded form (see {@link #rawMessages}) and {@code EVENT_MESSAGE} passes the decoded
+         * message.
+         */
+        public MessageCodec<?> messageCodec;
+
+        /**
+         * The number of packets that can be queued for the event thread by other threads, rounded
+         * up to a power of two. Threads sending while the queue is full wait for room in it.
+         */
+        public int writeQueueSize = 1024;
+
+        /**
+         * The maximum number of bytes of messages buffered for writing, counting text as chars,
+         * or 0 for no limit.
+         */
+        public long maxBufferedBytes;
+
+        /**
+         * The maximum number of messages buffered for writing, or 0 for no limit.
+         */
+        public int maxBufferedPackets;
+
+        public OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+        /**
+         * The budget of bytes of buffered messages this socket shares with others, on top of
+         * {@link #maxBufferedBytes}, or null. A socket can always buffer a message when its
+         * buffer is empty, even over the budget.
+         */
+        public MemoryBudget memoryBudget;
+
+        /**
+         * The journal the messages are appended to until written, so that the messages not
+         * written when the socket closes are sent again on the next open, or null.
+         */
+        public Journal journal;
+
+        /**
+         * How long {@link OverflowPolicy#BLOCK} waits for room, and any sending thread waits for
+         * the event thread to take the messages sent from other threads, in milliseconds.
+         */
+        public long overflowTimeout = 10000;
+
+        /**
+         * The number of buffered bytes at which {@code EVENT_HIGH_WATERMARK} is emitted, or 0 for
+         * no watermark events. Defaults to 0.
+         */
+        public long highWatermark;
+
+        /**
+         * The number of buffered bytes at which {@code EVENT_LOW_WATERMARK} is emitted once the
+         * high watermark was reached, or 0 for half the high watermark.
+         */
+        public long lowWatermark;
+
+        /**
+         * How long to wait for more messages before flushing a message over WebSocket, in
+         * microseconds, so that bursts of messages are written in a single flush. 0 flushes
+         * every message right away.
+         */
+        public long coalesceDelay;
+
+        /**
+         * The number of buffered bytes, counting text as chars, which are flushed without
+         * waiting for {@link #coalesceDelay}.
+         */
+        public long coalesceMaxBytes = 64 * 1024;
+
+        /**
+         * Whether to wait for {@link #coalesceDelay} only while messages are sent more often than
+         * it, so that sparse messages are not delayed.
+         */
+        public boolean adaptiveCoalescing = true;
+
+        /**
+         * How long messages can wait in the write buffer before they are dropped instead of
+         * written, in milliseconds, or 0 to write them however late. See also
+         * {@link Socket#send(Object, long, TimeUnit)}.
+         */
+        public long messageTtl;
+
+        /**
+         * The time messages are expected to wait in the write buffer at most, in milliseconds,
+         * over which messages are dropped with the CoDel algorithm (RFC 8289) until the delay
+         * drops back, or 0 to never drop them for their delay. A few milliseconds over the
+         * usual round trip time is a good start.
+         */
+        public long codelTarget;
+
+        /**
+         * How long messages can wait more than {@link #codelTarget} before the CoDel policy drops
+         * the first of them, in milliseconds, e.g. a round trip time on a slow link.
+         */
+        public long codelInterval = 100;
+
+        /**
+         * The number of bytes of messages of each {@link Priority}, from high to low, a flush
+         * takes while messages of other priorities are buffered, counting text as chars.
+         */
+        public long[] priorityBudgets = {64 * 1024, 16 * 1024, 4 * 1024};
+
         private static Options fromURI(URI uri, Options opts) {
             if (opts == null) {
                 opts = new Options();
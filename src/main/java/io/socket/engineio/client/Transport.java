@@ -1,11 +1,14 @@
 package io.socket.engineio.client;
 
 
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 
 import io.socket.emitter.Emitter;
+import io.socket.engineio.parser.BufferPool;
 import io.socket.engineio.parser.Packet;
+import io.socket.engineio.parser.PacketPool;
 import io.socket.engineio.parser.Parser;
 import io.socket.thread.EventThread;
 import okhttp3.Call;
@@ -45,6 +48,7 @@ public abstract class Transport extends Emitter {
     protected WebSocket.Factory webSocketFactory;
     protected Call.Factory callFactory;
     protected Map<String, List<String>> extraHeaders;
+    protected Parser.Options parserOptions;
 
     public Transport(Options opts) {
         this.path = opts.path;
@@ -58,6 +62,14 @@ public abstract class Transport extends Emitter {
         this.webSocketFactory = opts.webSocketFactory;
         this.callFactory = opts.callFactory;
         this.extraHeaders = opts.extraHeaders;
+        this.parserOptions = new Parser.Options();
+        this.parserOptions.lazy = opts.lazyMessages;
+        this.parserOptions.pool = opts.packetPool;
+        this.parserOptions.bufferPool = opts.bufferPool;
+        this.parserOptions.raw = opts.rawMessages;
+        this.parserOptions.maxMessageSize = opts.maxMessageSize;
+        this.parserOptions.maxPayloadSize = opts.maxPayloadSize;
+        this.parserOptions.protocol = opts.protocol;
     }
 
     protected Transport onError(String msg, Exception desc) {
@@ -104,15 +116,20 @@ public abstract class Transport extends Emitter {
     }
 
     protected void onData(String data) {
-        this.onPacket(Parser.decodePacket(data));
+        this.onPacket(Parser.decodePacket(data, this.parserOptions));
     }
 
     protected void onData(byte[] data) {
-        this.onPacket(Parser.decodePacket(data));
+        this.onPacket(Parser.decodePacket(data, this.parserOptions));
+    }
+
+    protected void onData(ByteBuffer data) {
+        this.onPacket(Parser.decodePacket(data, this.parserOptions));
     }
 
     protected void onPacket(Packet packet) {
         this.emit(EVENT_PACKET, packet);
+        packet.release();
     }
 
     protected void onClose() {
@@ -141,5 +158,59 @@ public abstract class Transport extends Emitter {
         public WebSocket.Factory webSocketFactory;
         public Call.Factory callFactory;
         public Map<String, List<String>> extraHeaders;
+
+        /**
+         * Whether received text messages are kept as views over the received frame instead of
+         * being copied. When enabled, {@code Socket.EVENT_MESSAGE} passes a {@link CharSequence}
+         * and the {@code data} of message packets stays null until
+         * {@link io.socket.engineio.parser.TextPacket#text()} is called.
+         */
+        public boolean lazyMessages;
+
+        /**
+         * The pool packets are obtained from, or null to allocate a packet for each message.
+         * Packets handed to {@code Socket.EVENT_PACKET} and {@code Socket.EVENT_PACKET_CREATE}
+         * listeners are then released once the listeners return, so listeners that keep a
+         * packet must {@link io.socket.engineio.parser.Packet#retain() retain} it.
+         */
+        public PacketPool packetPool;
+
+        /**
+         * The pool binary messages received over polling are decoded into, or null to decode
+         * each of them into a new array. When set, {@code Socket.EVENT_MESSAGE} passes a
+         * {@link java.nio.ByteBuffer} for those messages, which goes back to the pool once the
+         * listeners return; listeners that keep the data must copy it.
+         */
+        public BufferPool bufferPool;
+
+        /**
+         * Whether received messages are kept in their encoded form. When enabled, message
+         * packets are {@link io.socket.engineio.parser.BufferPacket}s and
+         * {@code Socket.EVENT_MESSAGE} passes the decoded message if the socket has a
+         * {@code MessageCodec}, or an {@link okio.Buffer} otherwise.
+         */
+        public boolean rawMessages;
+
+        /**
+         * The maximum size in bytes of a received message, or 0 for no limit. A larger message
+         * fails the transport with a {@link io.socket.engineio.parser.SizeLimitExceededException}
+         * as soon as it is detected, without reading the rest of it over polling.
+         */
+        public long maxMessageSize;
+
+        /**
+         * The maximum size in bytes of a received polling payload, or 0 for no limit. A larger
+         * payload fails the transport with a
+         * {@link io.socket.engineio.parser.SizeLimitExceededException} once the limit is crossed.
+         */
+        public long maxPayloadSize;
+
+        /**
+         * The protocol version, {@link Parser#PROTOCOL} or {@link Parser#PROTOCOL_V3} for
+         * servers which only speak (or also speak) the previous one. With the latter, binary
+         * messages are sent and received as is over polling, in binary payloads, instead of
+         * being Base64-encoded.
+         */
+        public int protocol = Parser.PROTOCOL;
     }
 }
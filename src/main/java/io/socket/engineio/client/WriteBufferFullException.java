@@ -0,0 +1,12 @@
+package io.socket.engineio.client;
+
+/**
+ * Thrown by the send methods of a {@link Socket} whose write buffer is full, depending on
+ * {@link Socket.Options#overflowPolicy}.
+ */
+public class WriteBufferFullException extends IllegalStateException {
+
+    public WriteBufferFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,48 @@
+package io.socket.engineio.client.compression;
+
+
+import java.util.Arrays;
+
+/**
+ * A preset dictionary for {@link DictionaryCodec}, identified by a version which is sent along
+ * with each compressed message. Both peers must know a dictionary under the same version.
+ */
+public final class CompressionDictionary {
+
+    public static final int MAX_VERSION = 0xfffe;
+
+    private final int version;
+    private final byte[] data;
+
+    /**
+     * Creates a dictionary. The most common content should come last, where it is the cheapest
+     * to refer to.
+     *
+     * @param version between 0 and {@link #MAX_VERSION}.
+     * @param data the dictionary content, at most 32 KiB of which is used.
+     */
+    public CompressionDictionary(int version, byte[] data) {
+        if (version < 0 || version > MAX_VERSION) {
+            throw new IllegalArgumentException("invalid dictionary version: " + version);
+        }
+        this.version = version;
+        this.data = Arrays.copyOf(data, data.length);
+    }
+
+    public int version() {
+        return this.version;
+    }
+
+    /**
+     * Returns the content of the dictionary.
+     *
+     * @return a copy of the content.
+     */
+    public byte[] data() {
+        return Arrays.copyOf(this.data, this.data.length);
+    }
+
+    /*package*/ byte[] rawData() {
+        return this.data;
+    }
+}
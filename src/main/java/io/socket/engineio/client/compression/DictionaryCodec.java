@@ -0,0 +1,262 @@
+package io.socket.engineio.client.compression;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import io.socket.engineio.client.MessageCodec;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+
+/**
+ * A {@link MessageCodec} which compresses the messages of another codec with deflate and a
+ * preset {@link CompressionDictionary}, for small messages with a lot in common (e.g. the keys
+ * of JSON documents) on which plain deflate saves next to nothing.
+ * <p>
+ * Compressed messages are sent as binary messages made of {@link #MARKER}, the version of the
+ * dictionary as two bytes, and the raw deflate data. Messages that would not get smaller are
+ * sent uncompressed, without the marker, and as text if the wrapped codec writes text. Received
+ * messages without the marker are passed to the wrapped codec as is, so a peer may send either
+ * kind. The marker is never the first byte of UTF-8 text; uncompressed messages of a binary
+ * codec starting with it are sent after the marker and the version {@code 0xffff}.
+ * <p>
+ * Dictionaries are switched with {@link #useDictionary(CompressionDictionary)}. Every
+ * dictionary used by this codec or added with {@link #addDictionary(CompressionDictionary)}
+ * remains available to decode messages. Deflaters and inflaters are reused across messages and
+ * released by {@link #close()}.
+ *
+ * @param <T> the type of messages.
+ */
+public class DictionaryCodec<T> implements MessageCodec<T>, Closeable {
+
+    public static final int MARKER = 0xff;
+
+    // the version of uncompressed messages starting with the marker
+    private static final int STORED = 0xffff;
+
+    private final MessageCodec<T> codec;
+    private final int level;
+    private final long maxMessageSize;
+    private final DictionaryTrainer trainer;
+    private final double sampleRate;
+
+    private final Map<Integer, CompressionDictionary> dictionaries = new ConcurrentHashMap<>();
+    private volatile CompressionDictionary dictionary;
+
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    public DictionaryCodec(MessageCodec<T> codec, CompressionDictionary dictionary) {
+        this(codec, dictionary, new Options());
+    }
+
+    /**
+     * Creates a codec.
+     *
+     * @param codec the codec messages are serialized with.
+     * @param dictionary the dictionary to compress with, or null to start uncompressed.
+     * @param opts
+     */
+    public DictionaryCodec(MessageCodec<T> codec, CompressionDictionary dictionary, Options opts) {
+        this.codec = codec;
+        this.level = opts.level;
+        this.maxMessageSize = opts.maxMessageSize;
+        this.trainer = opts.trainer;
+        this.sampleRate = opts.sampleRate;
+        if (dictionary != null) {
+            this.useDictionary(dictionary);
+        }
+    }
+
+    /**
+     * Compresses the messages sent from now on with the dictionary.
+     *
+     * @param dictionary the dictionary, or null to stop compressing.
+     */
+    public void useDictionary(CompressionDictionary dictionary) {
+        if (dictionary != null) {
+            this.addDictionary(dictionary);
+        }
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Makes a dictionary available to decode received messages.
+     *
+     * @param dictionary
+     */
+    public void addDictionary(CompressionDictionary dictionary) {
+        this.dictionaries.put(dictionary.version(), dictionary);
+    }
+
+    @Override
+    public boolean isBinary() {
+        return this.codec.isBinary();
+    }
+
+    @Override
+    public boolean isBinary(Buffer encoded) {
+        return this.codec.isBinary() || (encoded.size() > 0 && (encoded.getByte(0) & 0xff) == MARKER);
+    }
+
+    @Override
+    public void encode(T message, BufferedSink sink) throws IOException {
+        Buffer encoded = new Buffer();
+        this.codec.encode(message, encoded);
+
+        CompressionDictionary dictionary = this.dictionary;
+        boolean sample = this.trainer != null && ThreadLocalRandom.current().nextDouble() < this.sampleRate;
+        if (dictionary == null && !sample) {
+            this.writeStored(encoded, sink);
+            return;
+        }
+
+        byte[] input = encoded.readByteArray();
+        if (sample) {
+            this.trainer.offer(input);
+        }
+        if (dictionary == null) {
+            this.writeStored(new Buffer().write(input), sink);
+            return;
+        }
+
+        Deflater deflater = this.deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(this.level, true);
+        }
+        try {
+            deflater.setDictionary(dictionary.rawData());
+            deflater.setInput(input);
+            deflater.finish();
+
+            Buffer compressed = new Buffer();
+            compressed.writeByte(MARKER);
+            compressed.writeShort(dictionary.version());
+            byte[] chunk = new byte[Math.min(Math.max(input.length, 64), 8192)];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                compressed.write(chunk, 0, n);
+                if (compressed.size() > input.length) {
+                    this.writeStored(new Buffer().write(input), sink);
+                    return;
+                }
+            }
+            sink.writeAll(compressed);
+        } finally {
+            deflater.reset();
+            this.recycle(this.deflaters, deflater, Deflater::end);
+        }
+    }
+
+    private void writeStored(Buffer input, BufferedSink sink) throws IOException {
+        if (input.size() > 0 && (input.getByte(0) & 0xff) == MARKER) {
+            sink.writeByte(MARKER);
+            sink.writeShort(STORED);
+        }
+        sink.writeAll(input);
+    }
+
+    @Override
+    public T decode(BufferedSource source) throws IOException {
+        if (!source.request(1) || (source.getBuffer().getByte(0) & 0xff) != MARKER) {
+            return this.codec.decode(source);
+        }
+
+        source.skip(1);
+        int version = source.readShort() & 0xffff;
+        if (version == STORED) {
+            return this.codec.decode(source);
+        }
+        CompressionDictionary dictionary = this.dictionaries.get(version);
+        if (dictionary == null) {
+            throw new ProtocolException("unknown compression dictionary: " + version);
+        }
+
+        Inflater inflater = this.inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        Buffer inflated = new Buffer();
+        try {
+            inflater.setDictionary(dictionary.rawData());
+            inflater.setInput(source.readByteArray());
+
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ProtocolException("truncated compressed message");
+                }
+                inflated.write(chunk, 0, n);
+                if (inflated.size() > this.maxMessageSize) {
+                    throw new ProtocolException("compressed message exceeds " + this.maxMessageSize + " bytes");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ProtocolException("invalid compressed message: " + e.getMessage());
+        } finally {
+            inflater.reset();
+            this.recycle(this.inflaters, inflater, Inflater::end);
+        }
+        return this.codec.decode(inflated);
+    }
+
+    private <Z> void recycle(Queue<Z> pool, Z z, Consumer<Z> end) {
+        pool.offer(z);
+        // a close meanwhile may have missed it
+        if (this.closed && pool.remove(z)) {
+            end.accept(z);
+        }
+    }
+
+    /**
+     * Frees the native memory of the deflaters and inflaters. Messages can still be encoded and
+     * decoded afterwards, though without reusing them.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        Deflater deflater;
+        while ((deflater = this.deflaters.poll()) != null) {
+            deflater.end();
+        }
+        Inflater inflater;
+        while ((inflater = this.inflaters.poll()) != null) {
+            inflater.end();
+        }
+    }
+
+    public static class Options {
+
+        /**
+         * The deflate level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}.
+         */
+        public int level = Deflater.DEFAULT_COMPRESSION;
+
+        /**
+         * The maximum size of a decompressed message, beyond which decoding fails.
+         */
+        public long maxMessageSize = 16 * 1024 * 1024;
+
+        /**
+         * A trainer to feed sent messages to, or null.
+         */
+        public DictionaryTrainer trainer;
+
+        /**
+         * The fraction of sent messages fed to {@link #trainer}.
+         */
+        public double sampleRate = 0.01;
+    }
+}
@@ -0,0 +1,154 @@
+package io.socket.engineio.client.compression;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * Samples messages and builds a {@link CompressionDictionary} out of the byte sequences they
+ * most often have in common. This class is thread-safe.
+ * <p>
+ * A uniform sample of the offered messages is kept (reservoir sampling), so a trainer can be fed
+ * with all the traffic of a long running socket, e.g. through
+ * {@link DictionaryCodec.Options#trainer}.
+ */
+public class DictionaryTrainer {
+
+    public static final int DEFAULT_MAX_SAMPLES = 1000;
+    public static final int DEFAULT_DICTIONARY_SIZE = 4096;
+
+    // the length of the sequences counted across samples
+    private static final int SEGMENT_LENGTH = 8;
+
+    private final byte[][] samples;
+    private final Random random = new Random();
+    private int count;
+    private long offered;
+
+    public DictionaryTrainer() {
+        this(DEFAULT_MAX_SAMPLES);
+    }
+
+    /**
+     * Creates a trainer.
+     *
+     * @param maxSamples the number of messages kept.
+     */
+    public DictionaryTrainer(int maxSamples) {
+        this.samples = new byte[maxSamples][];
+    }
+
+    /**
+     * Offers a message to the sample.
+     *
+     * @param message the encoded, uncompressed message.
+     */
+    public synchronized void offer(byte[] message) {
+        this.offered++;
+        if (this.count < this.samples.length) {
+            this.samples[this.count++] = message;
+        } else {
+            long index = (long) (this.random.nextDouble() * this.offered);
+            if (index < this.samples.length) {
+                this.samples[(int) index] = message;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of sampled messages.
+     *
+     * @return the number of messages kept.
+     */
+    public synchronized int sampleCount() {
+        return this.count;
+    }
+
+    public CompressionDictionary train(int version) {
+        return this.train(version, DEFAULT_DICTIONARY_SIZE);
+    }
+
+    /**
+     * Builds a dictionary out of the sequences shared by the most sampled messages.
+     *
+     * @param version the version of the dictionary.
+     * @param maxSize the maximum size of the dictionary.
+     * @return the dictionary.
+     */
+    public CompressionDictionary train(int version, int maxSize) {
+        byte[][] samples;
+        synchronized (this) {
+            samples = Arrays.copyOf(this.samples, this.count);
+        }
+
+        // count in how many samples each sequence appears
+        Map<ByteString, int[]> counts = new HashMap<>();
+        for (byte[] sample : samples) {
+            Map<ByteString, Boolean> seen = new HashMap<>();
+            for (int i = 0; i + SEGMENT_LENGTH <= sample.length; i++) {
+                ByteString segment = ByteString.of(sample, i, SEGMENT_LENGTH);
+                if (seen.put(segment, Boolean.TRUE) == null) {
+                    int[] c = counts.get(segment);
+                    if (c == null) {
+                        counts.put(segment, new int[] {1});
+                    } else {
+                        c[0]++;
+                    }
+                }
+            }
+        }
+
+        List<Map.Entry<ByteString, int[]>> segments = new ArrayList<>(counts.entrySet());
+        segments.removeIf(entry -> entry.getValue()[0] < 2);
+        segments.sort((a, b) -> Integer.compare(b.getValue()[0], a.getValue()[0]));
+
+        // join sequences which overlap one already taken, skip the ones it contains
+        List<ByteString> parts = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<ByteString, int[]> entry : segments) {
+            if (size >= maxSize) break;
+            ByteString segment = entry.getKey();
+            int joined = join(parts, segment);
+            if (joined < 0) {
+                parts.add(segment.substring(0, Math.min(segment.size(), maxSize - size)));
+                size += parts.get(parts.size() - 1).size();
+            } else {
+                size += joined;
+            }
+        }
+
+        // the most common sequences go last, closest to the data
+        Buffer buffer = new Buffer();
+        for (int i = parts.size() - 1; i >= 0; i--) {
+            buffer.write(parts.get(i));
+        }
+        return new CompressionDictionary(version, buffer.readByteArray());
+    }
+
+    // returns the number of bytes added to an existing part, or -1 if none overlaps
+    private static int join(List<ByteString> parts, ByteString segment) {
+        int overlap = segment.size() - 1;
+        for (int i = 0; i < parts.size(); i++) {
+            ByteString part = parts.get(i);
+            if (part.indexOf(segment) >= 0) {
+                return 0;
+            }
+            if (part.endsWith(segment.substring(0, overlap))) {
+                parts.set(i, new Buffer().write(part).write(segment.substring(overlap)).readByteString());
+                return 1;
+            }
+            if (part.startsWith(segment.substring(1))) {
+                parts.set(i, new Buffer().write(segment.substring(0, 1)).write(part).readByteString());
+                return 1;
+            }
+        }
+        return -1;
+    }
+}
@@ -4,13 +4,18 @@ package io.socket.engineio.client.transports;
 import io.socket.emitter.Emitter;
 import io.socket.engineio.client.Transport;
 import io.socket.engineio.parser.Packet;
+import io.socket.engineio.parser.PacketType;
 import io.socket.engineio.parser.Parser;
+import io.socket.engineio.parser.TextPacket;
 import io.socket.parseqs.ParseQS;
 import io.socket.thread.EventThread;
 import io.socket.yeast.Yeast;
+import okio.BufferedSource;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -94,27 +99,60 @@ abstract public class Polling extends Transport {
         _onData(data);
     }
 
+    /**
+     * Decodes a payload as it streams in, dispatching each packet to the event thread as soon as
+     * it is complete. Runs on the calling (network) thread.
+     *
+     * @param source the payload.
+     * @throws IOException if reading the payload fails.
+     */
+    protected void onData(BufferedSource source) throws IOException {
+        final Polling self = this;
+        logger.fine("polling got payload stream");
+        // cleared on the event thread once a packet ends the payload, e.g. close
+        final AtomicBoolean reading = new AtomicBoolean(true);
+        Parser.decodePayload(source, this.parserOptions, (packet, index, total) -> {
+            EventThread.exec(() -> {
+                if (!reading.get()) {
+                    packet.release();
+                } else if (!self.onPayloadPacket(packet)) {
+                    reading.set(false);
+                }
+            });
+            return reading.get() && packet.packetType() != PacketType.CLOSE;
+        });
+        EventThread.exec(this::onPollComplete);
+    }
+
     private void _onData(Object data) {
         final Polling self = this;
         if (logger.isLoggable(Level.FINE)) {
             logger.fine(String.format("polling got data %s", data));
         }
-        Parser.DecodePayloadCallback callback = (packet, index, total) -> {
-            if (self.readyState == ReadyState.OPENING && Packet.OPEN.equals(packet.type)) {
-                self.onOpen();
-            }
+        Parser.DecodePayloadCallback<String> callback = (packet, index, total) -> self.onPayloadPacket(packet);
 
-            if (Packet.CLOSE.equals(packet.type)) {
-                self.onClose();
-                return false;
-            }
+        Parser.decodePayload((String) data, this.parserOptions, callback);
 
-            self.onPacket(packet);
-            return true;
-        };
+        this.onPollComplete();
+    }
 
-        Parser.decodePayload((String) data, callback);
+    private boolean onPayloadPacket(Packet packet) {
+        PacketType type = packet.packetType();
+        if (this.readyState == ReadyState.OPENING && type == PacketType.OPEN) {
+            this.onOpen();
+        }
+
+        if (type == PacketType.CLOSE) {
+            packet.release();
+            this.onClose();
+            return false;
+        }
+
+        this.onPacket(packet);
+        return true;
+    }
 
+    private void onPollComplete() {
         if (this.readyState != ReadyState.CLOSED) {
             this.polling = false;
             this.emit(EVENT_POLL_COMPLETE);
@@ -134,7 +172,7 @@ abstract public class Polling extends Transport {
 
         Emitter.Listener close = args -> {
             logger.fine("writing close packet");
-            self.write(new Packet[]{new Packet(Packet.CLOSE)});
+            self.write(new Packet[]{new TextPacket(PacketType.CLOSE)});
         };
 
         if (this.readyState == ReadyState.OPEN) {
@@ -156,7 +194,19 @@ abstract public class Polling extends Transport {
             self.emit(EVENT_DRAIN);
         };
 
-        Parser.encodePayload(packets, data -> self.doWrite(data, callbackfn));
+        this.doWrite(packets, callbackfn);
+    }
+
+    /**
+     * Writes the packets as a single payload. Encodes them to a string by default; override to
+     * encode them straight into the request body.
+     *
+     * @param packets
+     * @param fn callback to be called once the payload is written.
+     */
+    protected void doWrite(Packet[] packets, Runnable fn) {
+        final Polling self = this;
+        Parser.encodePayload(packets, data -> self.doWrite(data, fn));
     }
 
     protected String uri() {
@@ -2,6 +2,7 @@ package io.socket.engineio.client.transports;
 
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -12,6 +13,9 @@ import java.util.logging.Logger;
 
 import io.socket.emitter.Emitter;
 import io.socket.engineio.client.Transport;
+import io.socket.engineio.parser.Packet;
+import io.socket.engineio.parser.Parser;
+import io.socket.engineio.parser.SizeLimitExceededException;
 import io.socket.thread.EventThread;
 import okhttp3.Call;
 import okhttp3.Callback;
@@ -20,6 +24,8 @@ import okhttp3.MediaType;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.BufferedSource;
 
 public class PollingXHR extends Polling {
 
@@ -53,12 +59,26 @@ public class PollingXHR extends Polling {
         return req;
     }
 
+    @Override
+    protected void doWrite(Packet[] packets, final Runnable fn) {
+        Request.Options opts = new Request.Options();
+        opts.method = "POST";
+        opts.packets = packets;
+        opts.binary = this.parserOptions.protocol == Parser.PROTOCOL_V3;
+        opts.extraHeaders = this.extraHeaders;
+        this.doWrite(opts, fn);
+    }
+
     @Override
     protected void doWrite(String data, final Runnable fn) {
         Request.Options opts = new Request.Options();
         opts.method = "POST";
         opts.data = data;
         opts.extraHeaders = this.extraHeaders;
+        this.doWrite(opts, fn);
+    }
+
+    private void doWrite(Request.Options opts, final Runnable fn) {
         Request req = this.request(opts);
         final PollingXHR self = this;
         req.on(Request.EVENT_SUCCESS, args -> EventThread.exec(() -> fn.run()));
@@ -74,13 +94,16 @@ public class PollingXHR extends Polling {
         logger.fine("xhr poll");
         Request req = this.request();
         final PollingXHR self = this;
-        req.on(Request.EVENT_DATA, args -> EventThread.exec(() -> {
-            Object arg = args.length > 0 ? args[0] : null;
-            self.onData((String)arg);
-        }));
+        req.on(Request.EVENT_SOURCE, args -> {
+            try {
+                self.onData((BufferedSource) args[0]);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
         req.on(Request.EVENT_ERROR, args -> EventThread.exec(() -> {
             Exception err = args.length > 0 && args[0] instanceof Exception ? (Exception) args[0] : null;
-            self.onError("xhr poll error", err);
+            self.onError(err instanceof SizeLimitExceededException ? "size limit exceeded" : "xhr poll error", err);
         }));
         req.create();
     }
@@ -89,6 +112,11 @@ public class PollingXHR extends Polling {
 
         public static final String EVENT_SUCCESS = "success";
         public static final String EVENT_DATA = "data";
+        /**
+         * Emitted on the network thread with the response {@link BufferedSource}, in place of
+         * {@link #EVENT_DATA}, when listened to. The source must be consumed by the listener.
+         */
+        public static final String EVENT_SOURCE = "source";
         public static final String EVENT_ERROR = "error";
         public static final String EVENT_REQUEST_HEADERS = "requestHeaders";
         public static final String EVENT_RESPONSE_HEADERS = "responseHeaders";
@@ -97,10 +125,16 @@ public class PollingXHR extends Polling {
 
         private static final MediaType TEXT_MEDIA_TYPE = MediaType.parse(TEXT_CONTENT_TYPE);
 
+        private static final String BINARY_CONTENT_TYPE = "application/octet-stream";
+
+        private static final MediaType BINARY_MEDIA_TYPE = MediaType.parse(BINARY_CONTENT_TYPE);
+
         private final String method;
         private final String uri;
 
         private final String data;
+        private final Packet[] packets;
+        private final boolean binary;
 
         private final Call.Factory callFactory;
         private final Map<String, List<String>> extraHeaders;
@@ -111,6 +145,8 @@ public class PollingXHR extends Polling {
             this.method = opts.method != null ? opts.method : "GET";
             this.uri = opts.uri;
             this.data = opts.data;
+            this.packets = opts.packets;
+            this.binary = opts.binary;
             this.callFactory = opts.callFactory;
             this.extraHeaders = opts.extraHeaders;
         }
@@ -123,7 +159,8 @@ public class PollingXHR extends Polling {
                 headers.putAll(this.extraHeaders);
             }
             if ("POST".equals(this.method)) {
-                headers.put("Content-type", new LinkedList<>(Collections.singletonList(TEXT_CONTENT_TYPE)));
+                String contentType = this.binary ? BINARY_CONTENT_TYPE : TEXT_CONTENT_TYPE;
+                headers.put("Content-type", new LinkedList<>(Collections.singletonList(contentType)));
             }
 
             headers.put("Accept", new LinkedList<>(Collections.singletonList("*/*")));
@@ -131,7 +168,11 @@ public class PollingXHR extends Polling {
             this.onRequestHeaders(headers);
 
             if (LOGGABLE_FINE) {
-                logger.fine(String.format("sending xhr with url %s | data %s", this.uri, this.data));
+                if (this.packets != null) {
+                    logger.fine(String.format("sending xhr with url %s | %d packets", this.uri, this.packets.length));
+                } else {
+                    logger.fine(String.format("sending xhr with url %s | data %s", this.uri, this.data));
+                }
             }
 
             okhttp3.Request.Builder requestBuilder = new okhttp3.Request.Builder();
@@ -141,7 +182,9 @@ public class PollingXHR extends Polling {
                 }
             }
             RequestBody body = null;
-            if (this.data != null) {
+            if (this.packets != null) {
+                body = new PayloadBody(this.packets, this.binary);
+            } else if (this.data != null) {
                 body = RequestBody.create(TEXT_MEDIA_TYPE, this.data);
             }
 
@@ -184,6 +227,11 @@ public class PollingXHR extends Polling {
             this.onSuccess();
         }
 
+        private void onSource(BufferedSource source) {
+            this.emit(EVENT_SOURCE, source);
+            this.onSuccess();
+        }
+
         private void onError(Exception err) {
             this.emit(EVENT_ERROR, err);
         }
@@ -200,9 +248,52 @@ public class PollingXHR extends Polling {
             ResponseBody body = response.body();
 
             try {
-                this.onData(body.string());
+                if (this.hasListeners(EVENT_SOURCE)) {
+                    this.onSource(body.source());
+                } else {
+                    this.onData(body.string());
+                }
             } catch (IOException e) {
                 this.onError(e);
+            } catch (UncheckedIOException e) {
+                this.onError(e.getCause());
+            }
+        }
+
+        /**
+         * Streams the encoded payload into the request body.
+         */
+        private static class PayloadBody extends RequestBody {
+
+            private final Packet[] packets;
+            private final boolean binary;
+            private final long contentLength;
+
+            PayloadBody(Packet[] packets, boolean binary) {
+                this.packets = packets;
+                this.binary = binary;
+                this.contentLength = binary
+                        ? Parser.encodedBinaryPayloadLength(packets)
+                        : Parser.encodedPayloadLength(packets);
+            }
+
+            @Override
+            public MediaType contentType() {
+                return this.binary ? BINARY_MEDIA_TYPE : TEXT_MEDIA_TYPE;
+            }
+
+            @Override
+            public long contentLength() {
+                return this.contentLength;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                if (this.binary) {
+                    Parser.encodeBinaryPayload(this.packets, sink);
+                } else {
+                    Parser.encodePayload(this.packets, sink);
+                }
             }
         }
 
@@ -211,6 +302,12 @@ public class PollingXHR extends Polling {
             public String uri;
             public String method;
             public String data;
+            public Packet[] packets;
+
+            /**
+             * Whether {@link #packets} are sent as a binary payload of protocol v3.
+             */
+            public boolean binary;
             public Call.Factory callFactory;
             public Map<String, List<String>> extraHeaders;
         }
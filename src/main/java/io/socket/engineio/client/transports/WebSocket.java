@@ -4,6 +4,7 @@ package io.socket.engineio.client.transports;
 import io.socket.engineio.client.Transport;
 import io.socket.engineio.parser.Packet;
 import io.socket.engineio.parser.Parser;
+import io.socket.engineio.parser.SizeLimitExceededException;
 import io.socket.parseqs.ParseQS;
 import io.socket.thread.EventThread;
 import io.socket.yeast.Yeast;
@@ -11,6 +12,7 @@ import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.WebSocketListener;
 import okio.ByteString;
+import okio.Utf8;
 
 import java.util.HashMap;
 import java.util.List;
@@ -62,12 +64,22 @@ public class WebSocket extends Transport {
                 if (text == null) {
                     return;
                 }
+                // a message of N chars is at least N and at most 3N bytes long
+                long max = self.parserOptions.maxMessageSize;
+                if (max > 0 && (text.length() - 1L) * 3 > max && self.rejectMessage(webSocket, Utf8.size(text) - 1)) {
+                    return;
+                }
                 EventThread.exec(() -> self.onData(text));
             }
 
             @Override
             public void onMessage(okhttp3.WebSocket webSocket, final ByteString bytes) {
-                if (bytes == null) {
+                if (bytes == null || self.rejectMessage(webSocket, bytes.size())) {
+                    return;
+                }
+                if (self.parserOptions.raw) {
+                    // the packet copies the bytes it needs
+                    EventThread.exec(() -> self.onData(bytes.asByteBuffer()));
                     return;
                 }
                 EventThread.exec(() -> self.onData(bytes.toByteArray()));
@@ -88,6 +100,23 @@ public class WebSocket extends Transport {
         });
     }
 
+    /**
+     * Closes the connection on a message larger than {@link Options#maxMessageSize}. OkHttp reads
+     * each message whole before handing it over, so this bounds what is kept and decoded rather
+     * than what is read.
+     *
+     * @return true if the message was rejected.
+     */
+    private boolean rejectMessage(okhttp3.WebSocket webSocket, long size) {
+        final long max = this.parserOptions.maxMessageSize;
+        if (max <= 0 || size <= max) {
+            return false;
+        }
+        webSocket.close(1009, "message too big");
+        EventThread.exec(() -> this.onError("size limit exceeded", new SizeLimitExceededException(max, false)));
+        return true;
+    }
+
     protected void write(Packet[] packets) {
         final WebSocket self = this;
         this.writable = false;
@@ -108,12 +137,14 @@ public class WebSocket extends Transport {
                 break;
             }
 
-            Parser.encodePacket(packet, packet1 -> {
+            Parser.encodePacket(packet, this.parserOptions, packet1 -> {
                 try {
                     if (packet1 instanceof String) {
                         self.ws.send((String) packet1);
                     } else if (packet1 instanceof byte[]) {
                         self.ws.send(ByteString.of((byte[]) packet1));
+                    } else if (packet1 instanceof ByteString) {
+                        self.ws.send((ByteString) packet1);
                     }
                 } catch (IllegalStateException e) {
                     logger.fine("websocket closed before we could write");
@@ -0,0 +1,387 @@
+package io.socket.engineio.parser;
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+
+
+/**
+ * A Base64 codec which works directly on the bytes of a payload, so that binary packets sent
+ * or received over polling need neither an intermediate string nor an intermediate array.
+ * <p>
+ * Data goes through small per-thread scratch arrays, in chunks handed to the JDK codec so that
+ * its intrinsics apply. Decoding accepts input with or without padding, and rejects any
+ * character outside of the standard alphabet with an {@link IllegalArgumentException}.
+ */
+public final class Base64Codec {
+
+    private static final byte[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] VALUES = new byte[256];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    // scratch arrays hold 2^MIN_SHIFT to 2^MAX_SHIFT groups of 3 decoded or 4 encoded bytes
+    private static final int MIN_SHIFT = 4;
+    private static final int MAX_SHIFT = 10;
+    private static final int MAX_GROUPS = 1 << MAX_SHIFT;
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private Base64Codec() {}
+
+    /**
+     * Returns the number of bytes {@code length} bytes encode to, padding included.
+     *
+     * @param length
+     * @return the encoded length.
+     */
+    public static long encodedLength(long length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    public static void encode(byte[] data, BufferedSink sink) throws IOException {
+        encode(data, 0, data.length, sink);
+    }
+
+    /**
+     * Encodes a range of an array into the sink.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @param sink
+     * @throws IOException if writing to the sink fails.
+     */
+    public static void encode(byte[] data, int offset, int length, BufferedSink sink) throws IOException {
+        Scratch scratch = SCRATCH.get();
+        int end = offset + length;
+        while (end - offset >= 3) {
+            int groups = Math.min((end - offset) / 3, MAX_GROUPS);
+            int index = Scratch.indexOf(groups);
+            System.arraycopy(data, offset, scratch.decoded[index], 0, groups * 3);
+            encodeGroups(scratch, index, groups, sink);
+            offset += groups * 3;
+        }
+        if (offset < end) {
+            encodeTail(data[offset], end - offset == 2 ? data[offset + 1] : 0, end - offset, sink);
+        }
+    }
+
+    /**
+     * Encodes the remaining bytes of a buffer into the sink, without changing its position.
+     *
+     * @param data a heap or direct buffer.
+     * @param sink
+     * @throws IOException if writing to the sink fails.
+     */
+    public static void encode(ByteBuffer data, BufferedSink sink) throws IOException {
+        if (data.hasArray()) {
+            encode(data.array(), data.arrayOffset() + data.position(), data.remaining(), sink);
+            return;
+        }
+
+        Scratch scratch = SCRATCH.get();
+        ByteBuffer in = data.duplicate();
+        while (in.remaining() >= 3) {
+            int groups = Math.min(in.remaining() / 3, MAX_GROUPS);
+            int index = Scratch.indexOf(groups);
+            in.get(scratch.decoded[index], 0, groups * 3);
+            encodeGroups(scratch, index, groups, sink);
+        }
+        if (in.hasRemaining()) {
+            int remaining = in.remaining();
+            encodeTail(in.get(), remaining == 2 ? in.get() : 0, remaining, sink);
+        }
+    }
+
+    /**
+     * Encodes the content of a buffer into the sink, without consuming it.
+     *
+     * @param data
+     * @param sink
+     * @throws IOException if writing to the sink fails.
+     */
+    public static void encode(Buffer data, BufferedSink sink) throws IOException {
+        Scratch scratch = SCRATCH.get();
+        BufferedSource in = data.peek();
+        long remaining = data.size();
+        while (remaining >= 3) {
+            int groups = (int) Math.min(remaining / 3, MAX_GROUPS);
+            int index = Scratch.indexOf(groups);
+            readFully(in, scratch.decoded[index], groups * 3);
+            encodeGroups(scratch, index, groups, sink);
+            remaining -= groups * 3;
+        }
+        if (remaining > 0) {
+            encodeTail(in.readByte(), remaining == 2 ? in.readByte() : 0, (int) remaining, sink);
+        }
+    }
+
+    /**
+     * Decodes a range of characters into a new array.
+     *
+     * @param data
+     * @param start
+     * @param end
+     * @return the decoded bytes.
+     * @throws IllegalArgumentException if the data is not valid Base64.
+     */
+    public static byte[] decode(CharSequence data, int start, int end) {
+        int length = unpaddedLength(data, start, end);
+        byte[] decoded = new byte[decodedLength(length)];
+        decode(data, start, length, ByteBuffer.wrap(decoded), null);
+        return decoded;
+    }
+
+    /**
+     * Decodes a range of characters into a buffer.
+     *
+     * @param data
+     * @param start
+     * @param end
+     * @param sink
+     * @throws IllegalArgumentException if the data is not valid Base64.
+     */
+    public static void decode(CharSequence data, int start, int end, Buffer sink) {
+        decode(data, start, unpaddedLength(data, start, end), null, sink);
+    }
+
+    /**
+     * Decodes a range of characters into a buffer obtained from the pool.
+     *
+     * @param data
+     * @param start
+     * @param end
+     * @param pool
+     * @return the decoded bytes, between the position and the limit of the buffer.
+     * @throws IllegalArgumentException if the data is not valid Base64.
+     */
+    public static ByteBuffer decode(CharSequence data, int start, int end, BufferPool pool) {
+        int length = unpaddedLength(data, start, end);
+        ByteBuffer decoded = pool.acquire(decodedLength(length));
+        try {
+            decode(data, start, length, decoded, null);
+        } catch (IllegalArgumentException e) {
+            pool.release(decoded);
+            throw e;
+        }
+        decoded.flip();
+        return decoded;
+    }
+
+    /**
+     * Reads and decodes {@code length} bytes of the source into a new array.
+     *
+     * @param source
+     * @param length the number of encoded bytes.
+     * @return the decoded bytes.
+     * @throws IOException if reading the source fails.
+     * @throws IllegalArgumentException if the data is not valid Base64.
+     */
+    public static byte[] decode(BufferedSource source, long length) throws IOException {
+        long unpadded = unpaddedLength(source, length);
+        byte[] decoded = new byte[decodedLength(unpadded)];
+        decode(source, length, unpadded, ByteBuffer.wrap(decoded), null);
+        return decoded;
+    }
+
+    /**
+     * Reads and decodes {@code length} bytes of the source into a buffer.
+     *
+     * @param source
+     * @param length the number of encoded bytes.
+     * @param sink
+     * @throws IOException if reading the source fails.
+     * @throws IllegalArgumentException if the data is not valid Base64.
+     */
+    public static void decode(BufferedSource source, long length, Buffer sink) throws IOException {
+        decode(source, length, unpaddedLength(source, length), null, sink);
+    }
+
+    /**
+     * Reads and decodes {@code length} bytes of the source into a buffer obtained from the pool.
+     *
+     * @param source
+     * @param length the number of encoded bytes.
+     * @param pool
+     * @return the decoded bytes, between the position and the limit of the buffer.
+     * @throws IOException if reading the source fails.
+     * @throws IllegalArgumentException if the data is not valid Base64.
+     */
+    public static ByteBuffer decode(BufferedSource source, long length, BufferPool pool) throws IOException {
+        long unpadded = unpaddedLength(source, length);
+        ByteBuffer decoded = pool.acquire(decodedLength(unpadded));
+        try {
+            decode(source, length, unpadded, decoded, null);
+        } catch (IOException | IllegalArgumentException e) {
+            pool.release(decoded);
+            throw e;
+        }
+        decoded.flip();
+        return decoded;
+    }
+
+    // the scratch array may hold more groups than needed, whose output is dropped
+    private static void encodeGroups(Scratch scratch, int index, int groups, BufferedSink sink) throws IOException {
+        byte[] encoded = scratch.encoded[index];
+        Base64.getEncoder().encode(scratch.decoded[index], encoded);
+        sink.write(encoded, 0, groups * 4);
+    }
+
+    private static void encodeTail(byte first, byte second, int remaining, BufferedSink sink) throws IOException {
+        int bits = (first & 0xff) << 16 | (second & 0xff) << 8;
+        sink.writeInt(ALPHABET[bits >>> 18] << 24
+                | ALPHABET[(bits >>> 12) & 0x3f] << 16
+                | (remaining == 2 ? ALPHABET[(bits >>> 6) & 0x3f] : '=') << 8
+                | '=');
+    }
+
+    // decodes into either out or sink
+    private static void decode(CharSequence data, int start, int length, ByteBuffer out, Buffer sink) {
+        Scratch scratch = SCRATCH.get();
+        int i = start;
+        int end = start + length - length % 4;
+        while (i < end) {
+            int groups = Math.min((end - i) / 4, MAX_GROUPS);
+            int index = Scratch.indexOf(groups);
+            byte[] encoded = scratch.encoded[index];
+            for (int j = 0, n = groups * 4; j < n; j++) {
+                char c = data.charAt(i + j);
+                encoded[j] = c < 0x80 ? (byte) c : (byte) '?';
+            }
+            decodeGroups(scratch, index, groups, out, sink);
+            i += groups * 4;
+        }
+
+        int remaining = start + length - end;
+        if (remaining > 0) {
+            decodeTail(data.charAt(end), data.charAt(end + 1), remaining == 3 ? data.charAt(end + 2) : 'A', remaining, out, sink);
+        }
+    }
+
+    private static void decode(BufferedSource source, long length, long unpadded, ByteBuffer out, Buffer sink) throws IOException {
+        Scratch scratch = SCRATCH.get();
+        for (long full = unpadded - unpadded % 4; full > 0; ) {
+            int groups = (int) Math.min(full / 4, MAX_GROUPS);
+            int index = Scratch.indexOf(groups);
+            readFully(source, scratch.encoded[index], groups * 4);
+            decodeGroups(scratch, index, groups, out, sink);
+            full -= groups * 4;
+        }
+
+        int remaining = (int) (unpadded % 4);
+        if (remaining > 0) {
+            byte first = source.readByte();
+            byte second = remaining > 1 ? source.readByte() : 0;
+            byte third = remaining == 3 ? source.readByte() : (byte) 'A';
+            decodeTail(first, second, third, remaining, out, sink);
+        }
+        source.skip(length - unpadded);
+    }
+
+    // pads the scratch array with valid groups, whose output is dropped
+    private static void decodeGroups(Scratch scratch, int index, int groups, ByteBuffer out, Buffer sink) {
+        byte[] encoded = scratch.encoded[index];
+        if (groups * 4 < encoded.length) {
+            Arrays.fill(encoded, groups * 4, encoded.length, (byte) 'A');
+        }
+        byte[] decoded = scratch.decoded[index];
+        Base64.getDecoder().decode(encoded, decoded);
+        if (out != null) {
+            out.put(decoded, 0, groups * 3);
+        } else {
+            sink.write(decoded, 0, groups * 3);
+        }
+    }
+
+    private static void decodeTail(int first, int second, int third, int remaining, ByteBuffer out, Buffer sink) {
+        if (remaining == 1) {
+            throw new IllegalArgumentException("truncated Base64 data");
+        }
+        int bits = value(first) << 18 | value(second) << 12 | value(third) << 6;
+        if (out != null) {
+            out.put((byte) (bits >>> 16));
+            if (remaining == 3) out.put((byte) (bits >>> 8));
+        } else {
+            sink.writeByte(bits >>> 16);
+            if (remaining == 3) sink.writeByte(bits >>> 8);
+        }
+    }
+
+    private static int value(int c) {
+        int value = c < 0x80 ? VALUES[c & 0xff] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("Illegal base64 character " + Integer.toString(c & 0xffff, 16));
+        }
+        return value;
+    }
+
+    private static int decodedLength(long unpadded) {
+        long decoded = unpadded * 3 / 4;
+        if (decoded > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Base64 data too large: " + unpadded);
+        }
+        return (int) decoded;
+    }
+
+    private static int unpaddedLength(CharSequence data, int start, int end) {
+        int length = end - start;
+        if (length > 0 && data.charAt(end - 1) == '=') length--;
+        if (length > 0 && length % 4 == 3 && data.charAt(start + length - 1) == '=') length--;
+        return length;
+    }
+
+    private static long unpaddedLength(BufferedSource source, long length) throws IOException {
+        source.require(length);
+        Buffer buffer = source.getBuffer();
+        long unpadded = length;
+        if (unpadded > 0 && buffer.getByte(unpadded - 1) == '=') unpadded--;
+        if (unpadded > 0 && unpadded % 4 == 3 && buffer.getByte(unpadded - 1) == '=') unpadded--;
+        return unpadded;
+    }
+
+    private static void readFully(BufferedSource source, byte[] sink, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = source.read(sink, offset, length - offset);
+            if (read == -1) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+    }
+
+    private static final class Scratch {
+
+        final byte[][] decoded = new byte[MAX_SHIFT - MIN_SHIFT + 1][];
+        final byte[][] encoded = new byte[MAX_SHIFT - MIN_SHIFT + 1][];
+
+        Scratch() {
+            for (int i = 0; i < this.decoded.length; i++) {
+                this.decoded[i] = new byte[3 << (MIN_SHIFT + i)];
+                this.encoded[i] = new byte[4 << (MIN_SHIFT + i)];
+            }
+        }
+
+        // the index of the smallest arrays holding the given number of groups
+        static int indexOf(int groups) {
+            int shift = groups <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(groups - 1);
+            return Math.max(0, shift - MIN_SHIFT);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package io.socket.engineio.parser;
+
+
+import java.nio.ByteBuffer;
+
+/**
+ * A message packet carrying binary data, either as a {@code byte[]} in {@link #data} or as a
+ * {@link ByteBuffer}, possibly obtained from a {@link BufferPool}.
+ */
+public class BinaryPacket extends Packet<byte[]> {
+
+    private ByteBuffer buffer;
+    private BufferPool bufferPool;
+
+    public BinaryPacket(byte[] data) {
+        super(PacketType.MESSAGE, data);
+    }
+
+    /**
+     * Creates a packet over the remaining bytes of the buffer, without copying them.
+     *
+     * @param buffer
+     */
+    public BinaryPacket(ByteBuffer buffer) {
+        super(PacketType.MESSAGE, null);
+        this.buffer = buffer;
+    }
+
+    /**
+     * Returns the data as a buffer. A buffer from a {@link BufferPool} is only valid until the
+     * packet is released, and its position and limit must not be changed.
+     *
+     * @return the data, wrapped in a buffer if it is held as an array.
+     */
+    public ByteBuffer buffer() {
+        if (this.buffer == null && this.data != null) {
+            return ByteBuffer.wrap(this.data);
+        }
+        return this.buffer;
+    }
+
+    /**
+     * Returns the data as an array, copying it out of the buffer the first time.
+     *
+     * @return the data.
+     */
+    public byte[] bytes() {
+        if (this.data == null && this.buffer != null) {
+            ByteBuffer buffer = this.buffer.duplicate();
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            this.data = data;
+        }
+        return this.data;
+    }
+
+    /**
+     * Returns the number of bytes of data.
+     *
+     * @return the length.
+     */
+    public int length() {
+        if (this.data != null) {
+            return this.data.length;
+        }
+        return this.buffer != null ? this.buffer.remaining() : 0;
+    }
+
+    /*package*/ void setBuffer(ByteBuffer buffer, BufferPool bufferPool) {
+        this.buffer = buffer;
+        this.bufferPool = bufferPool;
+        if (bufferPool != null && !this.counted) {
+            this.counted = true;
+            this.refCnt = 1;
+        }
+    }
+
+    @Override
+    /*package*/ void deallocate() {
+        if (this.bufferPool != null) {
+            this.bufferPool.release(this.buffer);
+            this.bufferPool = null;
+            this.buffer = null;
+        }
+    }
+
+    @Override
+    /*package*/ void init(PacketType type, byte[] data) {
+        super.init(type, data);
+        this.buffer = null;
+        this.bufferPool = null;
+    }
+
+    @Override
+    /*package*/ void reset() {
+        super.reset();
+        this.buffer = null;
+        this.bufferPool = null;
+    }
+}
@@ -0,0 +1,38 @@
+package io.socket.engineio.parser;
+
+
+import okio.Buffer;
+
+/**
+ * A message packet whose body is kept in its encoded form in a {@link Buffer}, either as UTF-8
+ * text or as binary data. Transports link the buffer into frames and payloads without decoding
+ * it, so messages can be serialized straight into it and deserialized from the received bytes.
+ */
+public class BufferPacket extends Packet<Buffer> {
+
+    private final boolean binary;
+
+    public BufferPacket(Buffer data, boolean binary) {
+        super(PacketType.MESSAGE, data);
+        this.binary = binary;
+    }
+
+    /**
+     * Whether the body is binary data rather than UTF-8 text.
+     *
+     * @return true for binary data.
+     */
+    public boolean isBinary() {
+        return this.binary;
+    }
+
+    /**
+     * Returns a copy of the body, sharing its segments, which can be consumed without affecting
+     * the packet.
+     *
+     * @return the body.
+     */
+    public Buffer body() {
+        return this.data.clone();
+    }
+}
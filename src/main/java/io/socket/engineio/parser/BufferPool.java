@@ -0,0 +1,138 @@
+package io.socket.engineio.parser;
+
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * A pool of reusable {@link ByteBuffer}s in power-of-two size classes. This class is
+ * thread-safe.
+ * <p>
+ * Requests are rounded up to the next size class, and requests larger than the largest class
+ * are served with unpooled buffers of the exact size. A buffer goes back to its class when it
+ * is released, unless the class is full.
+ */
+public class BufferPool {
+
+    public static final int DEFAULT_MIN_SIZE = 64;
+    public static final int DEFAULT_MAX_SIZE = 1 << 20;
+    public static final int DEFAULT_MAX_PER_CLASS = 16;
+
+    private final boolean direct;
+    private final int minShift;
+    private final int maxShift;
+    private final ByteBuffer[][] classes;
+    private final int[] counts;
+
+
+    public BufferPool() {
+        this(false);
+    }
+
+    public BufferPool(boolean direct) {
+        this(DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, DEFAULT_MAX_PER_CLASS, direct);
+    }
+
+    /**
+     * Creates a pool.
+     *
+     * @param minSize the capacity of the smallest size class, rounded up to a power of two.
+     * @param maxSize the capacity of the largest size class, rounded up to a power of two.
+     * @param maxPerClass the maximum number of idle buffers kept for each size class.
+     * @param direct whether to allocate direct buffers.
+     */
+    public BufferPool(int minSize, int maxSize, int maxPerClass, boolean direct) {
+        if (minSize <= 0 || maxSize < minSize) {
+            throw new IllegalArgumentException("invalid size classes: " + minSize + " to " + maxSize);
+        }
+        this.direct = direct;
+        this.minShift = shiftOf(minSize);
+        this.maxShift = shiftOf(maxSize);
+        this.classes = new ByteBuffer[this.maxShift - this.minShift + 1][maxPerClass];
+        this.counts = new int[this.classes.length];
+    }
+
+    public boolean isDirect() {
+        return this.direct;
+    }
+
+    /**
+     * Obtains a buffer with a position of zero and a limit of {@code size}.
+     *
+     * @param size the number of bytes needed.
+     * @return the buffer.
+     */
+    public ByteBuffer acquire(int size) {
+        int shift = Math.max(this.minShift, shiftOf(size));
+        if (shift > this.maxShift) {
+            return this.allocate(size);
+        }
+
+        int index = shift - this.minShift;
+        ByteBuffer buffer = null;
+        ByteBuffer[] idle = this.classes[index];
+        synchronized (idle) {
+            int count = this.counts[index];
+            if (count > 0) {
+                buffer = idle[--count];
+                idle[count] = null;
+                this.counts[index] = count;
+            }
+        }
+        if (buffer == null) {
+            buffer = this.allocate(1 << shift);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used afterwards.
+     *
+     * @param buffer a buffer obtained from {@link #acquire(int)}.
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (Integer.bitCount(capacity) != 1 || buffer.isDirect() != this.direct) {
+            return;
+        }
+        int shift = Integer.numberOfTrailingZeros(capacity);
+        if (shift < this.minShift || shift > this.maxShift) {
+            return;
+        }
+
+        int index = shift - this.minShift;
+        ByteBuffer[] idle = this.classes[index];
+        synchronized (idle) {
+            int count = this.counts[index];
+            if (count < idle.length) {
+                idle[count] = buffer;
+                this.counts[index] = count + 1;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of idle buffers in the pool.
+     *
+     * @return the number of idle buffers.
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < this.classes.length; i++) {
+            synchronized (this.classes[i]) {
+                size += this.counts[i];
+            }
+        }
+        return size;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return this.direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static int shiftOf(int size) {
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+}
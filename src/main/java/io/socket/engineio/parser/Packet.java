@@ -1,6 +1,8 @@
 package io.socket.engineio.parser;
 
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 public class Packet<T> {
 
     static final public String OPEN = "open";
@@ -12,9 +14,19 @@ public class Packet<T> {
     static final public String NOOP = "noop";
     static final public String ERROR = "error";
 
+    private static final AtomicIntegerFieldUpdater<Packet> REF_CNT =
+            AtomicIntegerFieldUpdater.newUpdater(Packet.class, "refCnt");
+
     public String type;
     public T data;
 
+    private PacketType packetType;
+
+    /*package*/ PacketPool pool;
+    /*package*/ boolean counted;
+    /*package*/ volatile int refCnt;
+    /*package*/ PacketPool.Leak leak;
+
 
     public Packet(String type) {
         this(type, null);
@@ -24,4 +36,91 @@ public class Packet<T> {
         this.type = type;
         this.data = data;
     }
+
+    public Packet(PacketType type, T data) {
+        this.type = type.type;
+        this.data = data;
+        this.packetType = type;
+    }
+
+    /**
+     * Returns the type of this packet, resolved from {@link #type} once and cached.
+     *
+     * @return the type, or null if {@link #type} is unknown.
+     */
+    public PacketType packetType() {
+        PacketType packetType = this.packetType;
+        if (packetType == null || packetType.type != this.type) {
+            packetType = PacketType.of(this.type);
+            this.packetType = packetType;
+        }
+        return packetType;
+    }
+
+    /**
+     * Whether this packet was obtained from a {@link PacketPool}.
+     *
+     * @return true if the packet is pooled.
+     */
+    public boolean isPooled() {
+        return this.pool != null;
+    }
+
+    /**
+     * Takes an additional reference to a pooled packet, or to a packet backed by a pooled
+     * buffer. Does nothing for other packets.
+     *
+     * @return a reference to this object.
+     */
+    public Packet<T> retain() {
+        if (this.counted) {
+            int refCnt;
+            do {
+                refCnt = this.refCnt;
+                if (refCnt <= 0) {
+                    throw new IllegalStateException("packet was already released");
+                }
+            } while (!REF_CNT.compareAndSet(this, refCnt, refCnt + 1));
+        }
+        return this;
+    }
+
+    /**
+     * Drops a reference to a pooled packet, or to a packet backed by a pooled buffer. Once no
+     * reference is left, the buffer and the packet go back to their pools, and the packet must
+     * not be used anymore. Does nothing for other packets.
+     *
+     * @return true if the last reference was released.
+     */
+    public boolean release() {
+        if (!this.counted) {
+            return false;
+        }
+
+        int refCnt = REF_CNT.decrementAndGet(this);
+        if (refCnt > 0) {
+            return false;
+        }
+        if (refCnt < 0) {
+            REF_CNT.incrementAndGet(this);
+            throw new IllegalStateException("packet was already released");
+        }
+        this.deallocate();
+        if (this.pool != null) {
+            this.pool.recycle(this);
+        }
+        return true;
+    }
+
+    /*package*/ void init(PacketType type, T data) {
+        this.type = type.type;
+        this.data = data;
+        this.packetType = type;
+    }
+
+    /*package*/ void deallocate() {}
+
+    /*package*/ void reset() {
+        this.data = null;
+    }
 }
@@ -0,0 +1,167 @@
+package io.socket.engineio.parser;
+
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * A pool of recyclable {@link TextPacket} and {@link BinaryPacket} instances. This class is
+ * thread-safe.
+ * <p>
+ * A packet obtained from a pool is owned by whoever obtained it, and goes back to the pool
+ * when {@link Packet#release()} drops its reference count to zero. Anyone who keeps a packet
+ * beyond the call it was handed to them in (e.g. a {@code Socket.EVENT_PACKET} listener) must
+ * call {@link Packet#retain()} and later release it. The data of a packet is not recycled, only
+ * the packet itself and the {@link BufferPool} buffer it may be backed by.
+ * <p>
+ * With leak detection enabled, packets that are garbage collected without being released are
+ * reported along with where they were obtained. Detection is enabled by default when the
+ * {@code io.socket.engineio.leakDetection} system property is {@code true}.
+ */
+public class PacketPool {
+
+    private static final Logger logger = Logger.getLogger(PacketPool.class.getName());
+
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private static final boolean DEFAULT_LEAK_DETECTION = Boolean.getBoolean("io.socket.engineio.leakDetection");
+
+    private final TextPacket[] texts;
+    private final BinaryPacket[] binaries;
+    private int textCount;
+    private int binaryCount;
+
+    private final boolean leakDetection;
+    private final ReferenceQueue<Packet> leakQueue;
+    private final Set<Leak> leaks;
+
+
+    public PacketPool() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public PacketPool(int maxSize) {
+        this(maxSize, DEFAULT_LEAK_DETECTION);
+    }
+
+    /**
+     * Creates a pool.
+     *
+     * @param maxSize the maximum number of idle packets kept for each kind of packet.
+     * @param leakDetection whether to report packets which are never released.
+     */
+    public PacketPool(int maxSize, boolean leakDetection) {
+        this.texts = new TextPacket[maxSize];
+        this.binaries = new BinaryPacket[maxSize];
+        this.leakDetection = leakDetection;
+        this.leakQueue = leakDetection ? new ReferenceQueue<>() : null;
+        this.leaks = leakDetection ? Collections.newSetFromMap(new ConcurrentHashMap<>()) : null;
+    }
+
+    public TextPacket text(PacketType type) {
+        return this.text(type, (String) null);
+    }
+
+    public TextPacket text(PacketType type, String data) {
+        TextPacket packet;
+        synchronized (this) {
+            packet = this.textCount > 0 ? this.texts[--this.textCount] : null;
+            if (packet != null) this.texts[this.textCount] = null;
+        }
+        if (packet == null) {
+            packet = new TextPacket(type, data);
+        } else {
+            packet.init(type, data);
+        }
+        return this.acquired(packet);
+    }
+
+    public TextPacket text(PacketType type, CharSequence body) {
+        TextPacket packet = this.text(type, body instanceof String ? (String) body : null);
+        packet.setBody(body);
+        return packet;
+    }
+
+    public BinaryPacket binary(byte[] data) {
+        BinaryPacket packet;
+        synchronized (this) {
+            packet = this.binaryCount > 0 ? this.binaries[--this.binaryCount] : null;
+            if (packet != null) this.binaries[this.binaryCount] = null;
+        }
+        if (packet == null) {
+            packet = new BinaryPacket(data);
+        } else {
+            packet.init(PacketType.MESSAGE, data);
+        }
+        return this.acquired(packet);
+    }
+
+    /**
+     * Returns the number of idle packets in the pool.
+     *
+     * @return the number of idle packets.
+     */
+    public synchronized int size() {
+        return this.textCount + this.binaryCount;
+    }
+
+    /*package*/ void recycle(Packet packet) {
+        if (packet.leak != null) {
+            this.leaks.remove(packet.leak);
+            packet.leak.clear();
+            packet.leak = null;
+        }
+        packet.reset();
+
+        synchronized (this) {
+            if (packet instanceof TextPacket) {
+                if (this.textCount < this.texts.length) {
+                    this.texts[this.textCount++] = (TextPacket) packet;
+                }
+            } else if (packet instanceof BinaryPacket) {
+                if (this.binaryCount < this.binaries.length) {
+                    this.binaries[this.binaryCount++] = (BinaryPacket) packet;
+                }
+            }
+        }
+    }
+
+    private <T extends Packet> T acquired(T packet) {
+        packet.pool = this;
+        packet.counted = true;
+        packet.refCnt = 1;
+        if (this.leakDetection) {
+            this.reportLeaks();
+            Leak leak = new Leak(packet, this.leakQueue);
+            this.leaks.add(leak);
+            packet.leak = leak;
+        }
+        return packet;
+    }
+
+    private void reportLeaks() {
+        Reference<? extends Packet> ref;
+        while ((ref = this.leakQueue.poll()) != null) {
+            Leak leak = (Leak) ref;
+            if (this.leaks.remove(leak)) {
+                logger.log(Level.WARNING, "packet was garbage collected without being released", leak.origin);
+            }
+        }
+    }
+
+    /*package*/ static class Leak extends PhantomReference<Packet> {
+
+        private final Throwable origin = new Throwable("packet obtained here");
+
+        Leak(Packet referent, ReferenceQueue<? super Packet> queue) {
+            super(referent, queue);
+        }
+    }
+}
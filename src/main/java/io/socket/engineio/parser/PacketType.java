@@ -0,0 +1,65 @@
+package io.socket.engineio.parser;
+
+
+/**
+ * The packet types with their wire codes.
+ */
+public enum PacketType {
+
+    OPEN(0, Packet.OPEN),
+    CLOSE(1, Packet.CLOSE),
+    PING(2, Packet.PING),
+    PONG(3, Packet.PONG),
+    MESSAGE(4, Packet.MESSAGE),
+    UPGRADE(5, Packet.UPGRADE),
+    NOOP(6, Packet.NOOP),
+    ERROR(-1, Packet.ERROR);
+
+    private static final PacketType[] VALUES = values();
+
+    private static final PacketType[] CODES = {OPEN, CLOSE, PING, PONG, MESSAGE, UPGRADE, NOOP};
+
+    /**
+     * The code written on the wire, or -1 for the local error type.
+     */
+    public final byte code;
+
+    /**
+     * The type as used by {@link Packet#type}.
+     */
+    public final String type;
+
+    /*package*/ final String encoded;
+
+    PacketType(int code, String type) {
+        this.code = (byte) code;
+        this.type = type;
+        this.encoded = code >= 0 ? String.valueOf((char) ('0' + code)) : null;
+    }
+
+    /**
+     * Returns the type for a wire code.
+     *
+     * @param code
+     * @return the type, or null if the code is unknown.
+     */
+    public static PacketType fromCode(int code) {
+        return code >= 0 && code < CODES.length ? CODES[code] : null;
+    }
+
+    /**
+     * Returns the type for a {@link Packet#type} string.
+     *
+     * @param type
+     * @return the type, or null if it is unknown.
+     */
+    public static PacketType of(String type) {
+        for (PacketType value : VALUES) {
+            if (value.type == type) return value;
+        }
+        for (PacketType value : VALUES) {
+            if (value.type.equals(type)) return value;
+        }
+        return null;
+    }
+}
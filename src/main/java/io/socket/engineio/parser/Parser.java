@@ -1,50 +1,101 @@
 package io.socket.engineio.parser;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Base64;
-import java.util.HashMap;
-import java.util.Map;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Utf8;
 
 public class Parser {
 
     public static final int PROTOCOL = 4;
 
+    /**
+     * The previous protocol version, spoken when {@link Options#protocol} is set to it.
+     */
+    public static final int PROTOCOL_V3 = 3;
+
     private static final char SEPARATOR = '\u001e';
 
-    private static final Map<String, Integer> packets = new HashMap<String, Integer>() {{
-        put(Packet.OPEN, 0);
-        put(Packet.CLOSE, 1);
-        put(Packet.PING, 2);
-        put(Packet.PONG, 3);
-        put(Packet.MESSAGE, 4);
-        put(Packet.UPGRADE, 5);
-        put(Packet.NOOP, 6);
-    }};
+    private static final byte SEPARATOR_BYTE = (byte) SEPARATOR;
 
-    private static final Map<Integer, String> packetsList = new HashMap<>();
-    static {
-        for (Map.Entry<String, Integer> entry : packets.entrySet()) {
-            packetsList.put(entry.getValue(), entry.getKey());
-        }
-    }
-
-    private static final Packet<String> err = new Packet<String>(Packet.ERROR, "parser error");
+    private static final Packet<String> err = new TextPacket(PacketType.ERROR, "parser error");
 
     private Parser() {}
 
+    @SuppressWarnings("unchecked")
     public static void encodePacket(Packet packet, EncodeCallback callback) {
-        if (packet.data instanceof byte[]) {
-            ((EncodeCallback<byte[]>) callback).call(((Packet<byte[]>) packet).data);
+        if (packet instanceof PreEncodedPacket) {
+            callback.call(((PreEncodedPacket) packet).frame());
+        } else if (packet instanceof BufferPacket) {
+            encodeBufferPacket((BufferPacket) packet, callback);
+        } else if (isBinary(packet)) {
+            ((EncodeCallback<byte[]>) callback).call(bytesOf(packet));
+        } else {
+            PacketType type = typeOf(packet);
+            Object data = dataOf(packet);
+            String encoded;
+            if (data == null) {
+                encoded = type.encoded;
+            } else if (isFrameOf(data, type)) {
+                // the body was sliced from a frame of the same type, which can be sent as is
+                encoded = ((StringSlice) data).source();
+            } else {
+                encoded = type.encoded + data;
+            }
+            ((EncodeCallback<String>) callback).call(encoded);
+        }
+    }
+
+    /**
+     * Encodes a packet as a frame of the protocol of the options.
+     *
+     * @param packet
+     * @param opts encoding options, or null for the defaults.
+     * @param callback
+     */
+    @SuppressWarnings("unchecked")
+    public static void encodePacket(Packet<?> packet, Options opts, EncodeCallback<?> callback) {
+        if (opts != null && opts.protocol == PROTOCOL_V3 && binaryLength(packet) >= 0) {
+            // binary frames of protocol v3 start with the packet type
+            Buffer frame = new Buffer().writeByte(typeOf(packet).code);
+            try {
+                writeBinary(packet, frame);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            ((EncodeCallback<ByteString>) callback).call(frame.readByteString());
         } else {
-            String type = String.valueOf(packets.get(packet.type));
-            String content = packet.data != null ? String.valueOf(packet.data) : "";
-            ((EncodeCallback<String>) callback).call(type + content);
+            encodePacket(packet, callback);
+        }
+    }
+
+    // binary bodies are passed as a ByteString sharing the segments of the buffer
+    @SuppressWarnings("unchecked")
+    private static void encodeBufferPacket(BufferPacket packet, EncodeCallback callback) {
+        Buffer data = packet.data;
+        if (packet.isBinary()) {
+            ((EncodeCallback<ByteString>) callback).call(data.snapshot());
+        } else {
+            Buffer frame = new Buffer().writeUtf8(typeOf(packet).encoded);
+            data.copyTo(frame, 0, data.size());
+            ((EncodeCallback<String>) callback).call(frame.readUtf8());
         }
     }
 
     private static void encodePacketAsBase64(Packet packet, EncodeCallback<String> callback) {
-        if (packet.data instanceof byte[]) {
-            byte[] data = ((Packet<byte[]>) packet).data;
-            String value = "b" + Base64.getEncoder().encodeToString(data);
+        if (packet instanceof PreEncodedPacket) {
+            callback.call(((PreEncodedPacket) packet).payloadFrame().utf8());
+        } else if (packet instanceof BufferPacket && ((BufferPacket) packet).isBinary()) {
+            callback.call("b" + ((BufferPacket) packet).data.snapshot().base64());
+        } else if (isBinary(packet)) {
+            String value = "b" + Base64.getEncoder().encodeToString(bytesOf(packet));
             callback.call(value);
         } else {
             encodePacket(packet, callback);
@@ -52,42 +103,122 @@ public class Parser {
     }
 
     public static Packet<String> decodePacket(String data) {
-        if (data == null) {
-            return err;
+        return decodeTextPacket(data, null);
+    }
+
+    /**
+     * Decodes a packet with the given options.
+     *
+     * @param data
+     * @param opts decoding options, or null for the defaults.
+     * @return the packet.
+     */
+    public static Packet<?> decodePacket(String data, Options opts) {
+        if (opts != null && opts.raw && data != null && !data.isEmpty() && data.charAt(0) == PacketType.MESSAGE.encoded.charAt(0)) {
+            return new BufferPacket(new Buffer().writeUtf8(data, 1, data.length()), false);
         }
+        return decodeTextPacket(data, opts);
+    }
 
-        int type;
-        try {
-            type = Character.getNumericValue(data.charAt(0));
-        } catch (IndexOutOfBoundsException e) {
-            type = -1;
+    private static Packet<String> decodeTextPacket(String data, Options opts) {
+        if (data == null || data.isEmpty()) {
+            return err;
         }
 
-        if (type < 0 || type >= packetsList.size()) {
+        PacketType type = PacketType.fromCode(data.charAt(0) - '0');
+        if (type == null) {
             return err;
         }
 
         if (data.length() > 1) {
-            return new Packet<>(packetsList.get(type), data.substring(1));
+            if (type == PacketType.MESSAGE && opts != null && opts.lazy) {
+                return newText(opts, type, new StringSlice(data, 1, data.length()));
+            }
+            return newText(opts, type, data.substring(1));
         } else {
-            return new Packet<>(packetsList.get(type));
+            return newText(opts, type, null);
         }
     }
 
     public static Packet decodeBase64Packet(String data) {
+        return decodeBase64Packet(data, null);
+    }
+
+    /**
+     * Decodes a packet which may be Base64-encoded binary, with the given options.
+     *
+     * @param data
+     * @param opts decoding options, or null for the defaults.
+     * @return the packet.
+     */
+    public static Packet<?> decodeBase64Packet(String data, Options opts) {
         if (data == null) {
             return err;
         }
 
-        if (data.charAt(0) == 'b') {
-            return new Packet(Packet.MESSAGE, Base64.getDecoder().decode(data.substring(1)));
+        if (!data.isEmpty() && data.charAt(0) == 'b') {
+            try {
+                if (opts != null && opts.raw) {
+                    Buffer body = new Buffer();
+                    Base64Codec.decode(data, 1, data.length(), body);
+                    return new BufferPacket(body, true);
+                }
+                if (opts != null && opts.bufferPool != null) {
+                    return newBinary(opts, Base64Codec.decode(data, 1, data.length(), opts.bufferPool), opts.bufferPool);
+                }
+                return newBinary(opts, Base64Codec.decode(data, 1, data.length()));
+            } catch (IllegalArgumentException e) {
+                return err;
+            }
         } else {
-            return decodePacket(data);
+            return decodePacket(data, opts);
         }
     }
 
     public static Packet<byte[]> decodePacket(byte[] data) {
-        return new Packet<>(Packet.MESSAGE, data);
+        return newBinary(null, data);
+    }
+
+    public static Packet<?> decodePacket(byte[] data, Options opts) {
+        if (opts != null && opts.protocol == PROTOCOL_V3) {
+            // binary frames of protocol v3 start with the packet type
+            if (data.length == 0 || data[0] != PacketType.MESSAGE.code) {
+                return err;
+            }
+            data = Arrays.copyOfRange(data, 1, data.length);
+        }
+        if (opts != null && opts.raw) {
+            return new BufferPacket(new Buffer().write(data), true);
+        }
+        return newBinary(opts, data);
+    }
+
+    /**
+     * Decodes a binary packet from the remaining bytes of a buffer, without copying them.
+     *
+     * @param data
+     * @param opts decoding options, or null for the defaults.
+     * @return the packet.
+     */
+    public static Packet<?> decodePacket(ByteBuffer data, Options opts) {
+        if (opts != null && opts.protocol == PROTOCOL_V3) {
+            // binary frames of protocol v3 start with the packet type
+            if (!data.hasRemaining() || data.get(data.position()) != PacketType.MESSAGE.code) {
+                return err;
+            }
+            data = data.duplicate();
+            data.position(data.position() + 1);
+        }
+        if (opts != null && opts.raw) {
+            Buffer body = new Buffer();
+            try {
+                body.write(data.duplicate());
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return new BufferPacket(body, true);
+        }
+        return newBinary(opts, data, null);
     }
 
     public static void encodePayload(Packet[] packets, EncodeCallback<String> callback) {
@@ -111,28 +242,604 @@ public class Parser {
         callback.call(result.toString());
     }
 
+    /**
+     * Encodes a payload straight into the sink, without building intermediate strings.
+     *
+     * @param packets
+     * @param sink
+     * @throws IOException if writing to the sink fails.
+     */
+    public static void encodePayload(Packet[] packets, BufferedSink sink) throws IOException {
+        if (packets.length == 0) {
+            sink.writeUtf8("0:");
+            return;
+        }
+
+        for (int i = 0, l = packets.length; i < l; i++) {
+            if (i > 0) {
+                sink.writeByte(SEPARATOR);
+            }
+            encodePacketAsBase64(packets[i], sink);
+        }
+    }
+
+    /**
+     * Computes the number of bytes {@link #encodePayload(Packet[], BufferedSink)} writes.
+     *
+     * @param packets
+     * @return the encoded length in bytes.
+     */
+    public static long encodedPayloadLength(Packet[] packets) {
+        if (packets.length == 0) {
+            return 2;
+        }
+
+        long length = packets.length - 1;
+        for (Packet packet : packets) {
+            length += encodedLength(packet);
+        }
+        return length;
+    }
+
+    /**
+     * Computes the size of the data of a packet without encoding it nor scanning text: bytes for
+     * binary data and UTF-8 bodies, chars for other text.
+     *
+     * @param packet
+     * @return the size of the data.
+     */
+    public static long dataLength(Packet packet) {
+        long binaryLength = binaryLength(packet);
+        if (binaryLength >= 0) {
+            return binaryLength;
+        }
+        if (packet instanceof BufferPacket) {
+            return ((BufferPacket) packet).data.size();
+        }
+        Object data = dataOf(packet);
+        if (data instanceof CharSequence) {
+            return ((CharSequence) data).length();
+        }
+        return data != null ? String.valueOf(data).length() : 0;
+    }
+
+    // the number of bytes encodePacketAsBase64 writes
+    private static long encodedLength(Packet packet) {
+        if (packet instanceof PreEncodedPacket) {
+            return ((PreEncodedPacket) packet).payloadFrame().size();
+        }
+        long binaryLength = binaryLength(packet);
+        if (binaryLength >= 0) {
+            return 1 + Base64Codec.encodedLength(binaryLength);
+        }
+        if (packet instanceof BufferPacket) {
+            return 1 + ((BufferPacket) packet).data.size();
+        }
+        Object data = dataOf(packet);
+        if (data instanceof StringSlice) {
+            StringSlice slice = (StringSlice) data;
+            return 1 + Utf8.size(slice.source(), slice.start(), slice.end());
+        } else if (data != null) {
+            return 1 + Utf8.size(String.valueOf(data));
+        }
+        return 1;
+    }
+
+    /**
+     * Encodes a payload in the binary format of protocol v3, in which binary packets are sent as
+     * is rather than Base64-encoded. Each packet is preceded by 0 for text or 1 for binary data,
+     * its length as decimal digits (one per byte) and 255; binary packets start with their type.
+     *
+     * @param packets
+     * @param sink
+     * @throws IOException if writing to the sink fails.
+     */
+    public static void encodeBinaryPayload(Packet[] packets, BufferedSink sink) throws IOException {
+        for (Packet packet : packets) {
+            long binaryLength = binaryLength(packet);
+            if (binaryLength >= 0) {
+                sink.writeByte(1);
+                writeLengthHeader(binaryLength + 1, sink);
+                sink.writeByte(typeOf(packet).code);
+                writeBinary(packet, sink);
+            } else {
+                sink.writeByte(0);
+                writeLengthHeader(encodedLength(packet), sink);
+                encodePacketAsBase64(packet, sink);
+            }
+        }
+    }
+
+    /**
+     * Computes the number of bytes {@link #encodeBinaryPayload(Packet[], BufferedSink)} writes.
+     *
+     * @param packets
+     * @return the encoded length in bytes.
+     */
+    public static long encodedBinaryPayloadLength(Packet[] packets) {
+        long length = 0;
+        for (Packet packet : packets) {
+            length += encodedBinaryPayloadLength(packet);
+        }
+        return length;
+    }
+
+    private static long encodedBinaryPayloadLength(Packet packet) {
+        long binaryLength = binaryLength(packet);
+        long packetLength = binaryLength >= 0 ? binaryLength + 1 : encodedLength(packet);
+        return 2 + Long.toString(packetLength).length() + packetLength;
+    }
+
+    /**
+     * Computes the number of bytes a packet adds to a payload, in the format of the protocol of
+     * the options: its separator included for protocol 4, its header for the binary payloads of
+     * protocol 3.
+     *
+     * @param packet
+     * @param opts
+     * @return the encoded length in bytes.
+     */
+    public static long encodedPayloadLength(Packet packet, Options opts) {
+        if (opts != null && opts.protocol == PROTOCOL_V3) {
+            return encodedBinaryPayloadLength(packet);
+        }
+        return encodedLength(packet) + 1;
+    }
+
+    private static void writeLengthHeader(long length, BufferedSink sink) throws IOException {
+        String digits = Long.toString(length);
+        for (int i = 0; i < digits.length(); i++) {
+            sink.writeByte(digits.charAt(i) - '0');
+        }
+        sink.writeByte(255);
+    }
+
+    // the length of the data of a binary packet, or -1 for a text packet
+    private static long binaryLength(Packet packet) {
+        if (packet instanceof BufferPacket) {
+            BufferPacket bufferPacket = (BufferPacket) packet;
+            return bufferPacket.isBinary() ? bufferPacket.data.size() : -1;
+        }
+        if (packet instanceof PreEncodedPacket) {
+            PreEncodedPacket preEncoded = (PreEncodedPacket) packet;
+            return preEncoded.isBinary() ? ((ByteString) preEncoded.data).size() : -1;
+        }
+        return isBinary(packet) ? lengthOf(packet) : -1;
+    }
+
+    private static void writeBinary(Packet packet, BufferedSink sink) throws IOException {
+        if (packet instanceof BufferPacket) {
+            Buffer data = ((BufferPacket) packet).data;
+            data.copyTo(sink.getBuffer(), 0, data.size());
+            sink.emitCompleteSegments();
+        } else if (packet instanceof PreEncodedPacket) {
+            sink.write((ByteString) packet.data);
+        } else if (packet.data instanceof byte[]) {
+            sink.write((byte[]) packet.data);
+        } else {
+            sink.write(((BinaryPacket) packet).buffer().duplicate());
+        }
+    }
+
+    private static void encodePacketAsBase64(Packet packet, BufferedSink sink) throws IOException {
+        if (packet instanceof PreEncodedPacket) {
+            sink.write(((PreEncodedPacket) packet).payloadFrame());
+        } else if (packet instanceof BufferPacket) {
+            BufferPacket bufferPacket = (BufferPacket) packet;
+            Buffer data = bufferPacket.data;
+            if (bufferPacket.isBinary()) {
+                sink.writeByte('b');
+                Base64Codec.encode(data, sink);
+            } else {
+                // shares the segments of the body rather than copying them
+                sink.writeByte('0' + typeOf(packet).code);
+                data.copyTo(sink.getBuffer(), 0, data.size());
+                sink.emitCompleteSegments();
+            }
+        } else if (packet.data instanceof byte[]) {
+            sink.writeByte('b');
+            Base64Codec.encode((byte[]) packet.data, sink);
+        } else if (packet instanceof BinaryPacket) {
+            sink.writeByte('b');
+            Base64Codec.encode(((BinaryPacket) packet).buffer(), sink);
+        } else {
+            sink.writeByte('0' + typeOf(packet).code);
+            Object data = dataOf(packet);
+            if (data instanceof StringSlice) {
+                StringSlice slice = (StringSlice) data;
+                sink.writeUtf8(slice.source(), slice.start(), slice.end());
+            } else if (data != null) {
+                sink.writeUtf8(String.valueOf(data));
+            }
+        }
+    }
+
+    private static PacketType typeOf(Packet packet) {
+        PacketType type = packet.packetType();
+        if (type == null || type == PacketType.ERROR) {
+            throw new IllegalArgumentException("cannot encode packet of type " + packet.type);
+        }
+        return type;
+    }
+
+    private static TextPacket newText(Options opts, PacketType type, String data) {
+        return opts != null && opts.pool != null ? opts.pool.text(type, data) : new TextPacket(type, data);
+    }
+
+    private static TextPacket newText(Options opts, PacketType type, CharSequence body) {
+        return opts != null && opts.pool != null ? opts.pool.text(type, body) : new TextPacket(type, body);
+    }
+
+    private static BinaryPacket newBinary(Options opts, byte[] data) {
+        return opts != null && opts.pool != null ? opts.pool.binary(data) : new BinaryPacket(data);
+    }
+
+    private static BinaryPacket newBinary(Options opts, ByteBuffer buffer, BufferPool bufferPool) {
+        BinaryPacket packet = newBinary(opts, null);
+        packet.setBuffer(buffer, bufferPool);
+        return packet;
+    }
+
+    private static boolean isBinary(Packet packet) {
+        return packet.data instanceof byte[] || packet instanceof BinaryPacket;
+    }
+
+    private static byte[] bytesOf(Packet packet) {
+        return packet instanceof BinaryPacket ? ((BinaryPacket) packet).bytes() : (byte[]) packet.data;
+    }
+
+    private static int lengthOf(Packet packet) {
+        return packet instanceof BinaryPacket ? ((BinaryPacket) packet).length() : ((byte[]) packet.data).length;
+    }
+
+    private static Object dataOf(Packet packet) {
+        return packet instanceof TextPacket ? ((TextPacket) packet).body() : packet.data;
+    }
+
+    private static boolean isFrameOf(Object data, PacketType type) {
+        if (!(data instanceof StringSlice)) return false;
+        StringSlice slice = (StringSlice) data;
+        String source = slice.source();
+        return slice.start() == 1 && slice.end() == source.length() && source.charAt(0) == type.encoded.charAt(0);
+    }
+
     public static void decodePayload(String data, DecodePayloadCallback<String> callback) {
+        decodePayload(data, null, callback);
+    }
+
+    public static void decodePayload(String data, Options opts, DecodePayloadCallback<String> callback) {
         if (data == null || data.isEmpty()) {
             callback.call(err, 0, 1);
             return;
         }
 
+        if (opts != null && opts.protocol == PROTOCOL_V3) {
+            try {
+                decodeTextPayload(data, opts, 0, callback);
+            } catch (SizeLimitExceededException e) {
+                throw new AssertionError(e);
+            }
+            return;
+        }
+
         String[] messages = data.split(String.valueOf(SEPARATOR));
 
         for (int i = 0, l = messages.length; i < l; i++) {
-            Packet<String> packet = decodeBase64Packet(messages[i]);
-            if (err.type.equals(packet.type) && err.data.equals(packet.data)) {
+            Packet<?> packet = decodeBase64Packet(messages[i], opts);
+            if (packet == err) {
                 callback.call(err, 0, 1);
                 return;
             }
 
-            boolean ret = callback.call(packet, i, l);
+            boolean ret = call(callback, packet, i, l);
             if (!ret) {
                 return;
             }
         }
     }
 
+    /**
+     * Decodes a payload while it is being read, handing each packet to the callback as soon as
+     * its separator (or the end of the source) is reached.
+     * <p>
+     * The packet count is not known up front, so {@code total} is {@code -1} for every packet
+     * but the last one.
+     *
+     * @param source the payload, typically the body of a polling response.
+     * @param callback
+     * @throws IOException if reading the source fails.
+     */
+    public static void decodePayload(BufferedSource source, DecodePayloadCallback<String> callback) throws IOException {
+        decodePayload(source, null, callback);
+    }
+
+    /**
+     * Decodes a payload while it is being read, with the given options.
+     *
+     * @param source the payload.
+     * @param opts decoding options, or null for the defaults.
+     * @param callback
+     * @throws IOException if reading the source fails.
+     * @see #decodePayload(BufferedSource, DecodePayloadCallback)
+     */
+    public static void decodePayload(BufferedSource source, Options opts, DecodePayloadCallback<String> callback) throws IOException {
+        if (source.exhausted()) {
+            callback.call(err, 0, 1);
+            return;
+        }
+
+        if (opts != null && opts.protocol == PROTOCOL_V3) {
+            // binary payloads start with 0 or 1, text ones with the digits of a length
+            if (source.getBuffer().getByte(0) <= 1) {
+                decodeBinaryPayload(source, opts, callback);
+            } else {
+                if (opts.maxPayloadSize > 0 && source.request(opts.maxPayloadSize + 1)) {
+                    throw new SizeLimitExceededException(opts.maxPayloadSize, true);
+                }
+                decodeTextPayload(source.readUtf8(), opts, opts.maxMessageSize, callback);
+            }
+            return;
+        }
+
+        long maxMessageSize = opts != null ? opts.maxMessageSize : 0;
+        long maxPayloadSize = opts != null ? opts.maxPayloadSize : 0;
+        // the longest a packet may be, a binary one being the longest to encode a message
+        long maxPacketLength = maxMessageSize > 0 ? 1 + Base64Codec.encodedLength(maxMessageSize) : Long.MAX_VALUE;
+        long read = 0;
+
+        int i = 0;
+        while (true) {
+            // never search (and buffer) further than a packet within the limits may extend
+            long window = maxPacketLength;
+            if (maxPayloadSize > 0) {
+                window = Math.min(window, maxPayloadSize - read);
+            }
+            long end = source.indexOf(SEPARATOR_BYTE, 0, window == Long.MAX_VALUE ? window : window + 1);
+            boolean isLast = end == -1;
+            if (isLast) {
+                if (window != Long.MAX_VALUE && source.request(window + 1)) {
+                    throw maxPayloadSize > 0 && window < maxPacketLength
+                            ? new SizeLimitExceededException(maxPayloadSize, true)
+                            : new SizeLimitExceededException(maxMessageSize, false);
+                }
+                // the whole source has been buffered by the search
+                end = source.getBuffer().size();
+            }
+            read += end + 1;
+
+            Packet packet;
+            byte first = end > 0 ? source.getBuffer().getByte(0) : 0;
+            if (maxMessageSize > 0 && messageLength(source.getBuffer(), first, end) > maxMessageSize) {
+                throw new SizeLimitExceededException(maxMessageSize, false);
+            }
+            if (first == 'b') {
+                source.skip(1);
+                packet = decodeBase64Packet(source, end - 1, opts);
+            } else if (first == '0' + PacketType.MESSAGE.code && opts != null && opts.raw) {
+                source.skip(1);
+                Buffer body = new Buffer();
+                source.readFully(body, end - 1);
+                packet = new BufferPacket(body, false);
+            } else {
+                packet = decodeBase64Packet(source.readUtf8(end), opts);
+            }
+            if (!isLast) {
+                source.skip(1);
+                // a separator at the end of the payload ends the last packet
+                isLast = source.exhausted();
+            }
+
+            if (packet == err) {
+                callback.call(err, 0, 1);
+                return;
+            }
+
+            boolean ret = call(callback, packet, i, isLast ? i + 1 : -1);
+            if (!ret || isLast) {
+                return;
+            }
+            i++;
+        }
+    }
+
+    // decodes a text payload of protocol v3, made of packets prefixed by their length in chars and ':'
+    private static void decodeTextPayload(String data, Options opts, long maxMessageSize,
+                                          DecodePayloadCallback<String> callback) throws SizeLimitExceededException {
+        int i = 0;
+        int index = 0;
+        while (i < data.length()) {
+            int colon = data.indexOf(':', i);
+            int end = -1;
+            if (colon > i && colon - i < 10) {
+                try {
+                    end = colon + 1 + Integer.parseInt(data.substring(i, colon));
+                } catch (NumberFormatException e) {
+                    // reported below
+                }
+            }
+            if (end <= colon || end > data.length()) {
+                callback.call(err, 0, 1);
+                return;
+            }
+            if (maxMessageSize > 0 && Utf8.size(data, colon + 1, end) - 1 > maxMessageSize) {
+                throw new SizeLimitExceededException(maxMessageSize, false);
+            }
+
+            Packet packet;
+            if (data.charAt(colon + 1) == 'b') {
+                // Base64-encoded binary, prefixed by the packet type
+                packet = data.charAt(colon + 2) == '0' + PacketType.MESSAGE.code
+                        ? decodeBase64Packet("b" + data.substring(colon + 3, end), opts)
+                        : err;
+            } else {
+                packet = decodePacket(data.substring(colon + 1, end), opts);
+            }
+            if (packet == err) {
+                callback.call(err, 0, 1);
+                return;
+            }
+
+            boolean isLast = end == data.length();
+            if (!call(callback, packet, index, isLast ? index + 1 : -1)) {
+                return;
+            }
+            i = end;
+            index++;
+        }
+    }
+
+    // decodes a binary payload of protocol v3, see encodeBinaryPayload
+    private static void decodeBinaryPayload(BufferedSource source, Options opts,
+                                            DecodePayloadCallback<String> callback) throws IOException {
+        long read = 0;
+        int index = 0;
+        while (true) {
+            boolean binary = source.readByte() == 1;
+            long length = 0;
+            int digits = 0;
+            for (byte b = source.readByte(); b != (byte) 255; b = source.readByte()) {
+                if (b < 0 || b > 9 || ++digits > 18) {
+                    callback.call(err, 0, 1);
+                    return;
+                }
+                length = length * 10 + b;
+            }
+            if (length == 0) {
+                callback.call(err, 0, 1);
+                return;
+            }
+            if (opts.maxMessageSize > 0 && length - 1 > opts.maxMessageSize) {
+                throw new SizeLimitExceededException(opts.maxMessageSize, false);
+            }
+            read += 2 + digits + length;
+            if (opts.maxPayloadSize > 0 && read > opts.maxPayloadSize) {
+                throw new SizeLimitExceededException(opts.maxPayloadSize, true);
+            }
+
+            Packet packet;
+            if (!binary) {
+                packet = decodePacket(source.readUtf8(length), opts);
+            } else if (source.readByte() != PacketType.MESSAGE.code) {
+                packet = err;
+            } else if (opts.raw) {
+                Buffer body = new Buffer();
+                source.readFully(body, length - 1);
+                packet = new BufferPacket(body, true);
+            } else if (opts.bufferPool != null) {
+                ByteBuffer buffer = opts.bufferPool.acquire((int) (length - 1));
+                try {
+                    while (buffer.hasRemaining()) {
+                        if (source.read(buffer) == -1) {
+                            throw new EOFException();
+                        }
+                    }
+                } catch (IOException e) {
+                    opts.bufferPool.release(buffer);
+                    throw e;
+                }
+                buffer.flip();
+                packet = newBinary(opts, buffer, opts.bufferPool);
+            } else {
+                packet = newBinary(opts, source.readByteArray(length - 1));
+            }
+            if (packet == err) {
+                callback.call(err, 0, 1);
+                return;
+            }
+
+            boolean isLast = source.exhausted();
+            if (!call(callback, packet, index, isLast ? index + 1 : -1) || isLast) {
+                return;
+            }
+            index++;
+        }
+    }
+
+    // payloads mix text and binary packets, which callbacks typed for text are given as well
+    @SuppressWarnings("unchecked")
+    private static boolean call(DecodePayloadCallback<String> callback, Packet<?> packet, int index, int total) {
+        return callback.call((Packet<String>) packet, index, total);
+    }
+
+    // the length of the message in the first bytes of the buffer, once decoded
+    private static long messageLength(Buffer buffer, byte first, long end) {
+        if (end == 0) {
+            return 0;
+        }
+        if (first != 'b') {
+            return end - 1;
+        }
+        long length = end - 1;
+        long decoded = length / 4 * 3 + Math.max(0, length % 4 - 1);
+        for (long i = end - 1; i > end - 3 && i > 0 && buffer.getByte(i) == '='; i--) {
+            decoded--;
+        }
+        return decoded;
+    }
+
+    private static Packet decodeBase64Packet(BufferedSource source, long length, Options opts) throws IOException {
+        try {
+            if (opts != null && opts.raw) {
+                Buffer body = new Buffer();
+                Base64Codec.decode(source, length, body);
+                return new BufferPacket(body, true);
+            }
+            if (opts != null && opts.bufferPool != null) {
+                return newBinary(opts, Base64Codec.decode(source, length, opts.bufferPool), opts.bufferPool);
+            }
+            return newBinary(opts, Base64Codec.decode(source, length));
+        } catch (IllegalArgumentException e) {
+            return err;
+        }
+    }
+
+    public static class Options {
+
+        /**
+         * Whether message packets keep their text as a {@link StringSlice} over the received
+         * frame instead of copying it. See {@link TextPacket#body()}.
+         */
+        public boolean lazy;
+
+        /**
+         * The pool decoded packets are obtained from, or null to allocate them. Decoded packets
+         * must then be released by whoever consumes them.
+         */
+        public PacketPool pool;
+
+        /**
+         * The pool Base64-encoded binary packets are decoded into, or null to decode them into
+         * arrays. See {@link BinaryPacket#buffer()}.
+         */
+        public BufferPool bufferPool;
+
+        /**
+         * Whether message packets keep their encoded body, text or binary, as a
+         * {@link BufferPacket}. Takes precedence over {@link #lazy} and {@link #bufferPool}.
+         */
+        public boolean raw;
+
+        /**
+         * The maximum size of a packet in bytes, text as UTF-8, or 0 for no limit. Payloads read
+         * from a {@link BufferedSource} fail early with a {@link SizeLimitExceededException}.
+         */
+        public long maxMessageSize;
+
+        /**
+         * The maximum size of a payload in bytes, or 0 for no limit. Payloads read from a
+         * {@link BufferedSource} fail early with a {@link SizeLimitExceededException}.
+         */
+        public long maxPayloadSize;
+
+        /**
+         * The protocol version, {@link #PROTOCOL} or {@link #PROTOCOL_V3}. With the latter,
+         * binary packets are sent as is in binary frames and payloads, see
+         * {@link #encodeBinaryPayload(Packet[], BufferedSink)}, and text payloads are made of
+         * length-prefixed packets.
+         */
+        public int protocol = PROTOCOL;
+    }
+
     public interface EncodeCallback<T> {
 
         void call(T data);
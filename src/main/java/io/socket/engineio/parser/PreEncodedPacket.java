@@ -0,0 +1,81 @@
+package io.socket.engineio.parser;
+
+
+import java.io.IOException;
+
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * An immutable message packet which is encoded at most once per form, whatever the number of
+ * transports it is written to: as a frame for transports sending packets one by one, and as a
+ * part of a polling payload. Each form is encoded on first use and is then shared, so the packet
+ * can be written by any number of sockets, from any thread.
+ */
+public final class PreEncodedPacket extends Packet<Object> {
+
+    private volatile Object frame;
+    private volatile ByteString payloadFrame;
+
+    /**
+     * Creates a text message packet.
+     *
+     * @param data
+     */
+    public PreEncodedPacket(String data) {
+        super(PacketType.MESSAGE, data);
+    }
+
+    /**
+     * Creates a binary message packet.
+     *
+     * @param data
+     */
+    public PreEncodedPacket(ByteString data) {
+        super(PacketType.MESSAGE, data);
+    }
+
+    public boolean isBinary() {
+        return this.data instanceof ByteString;
+    }
+
+    /**
+     * Returns the packet encoded as a frame.
+     *
+     * @return a {@link String} for text, a {@link ByteString} for binary data.
+     */
+    public Object frame() {
+        Object frame = this.frame;
+        if (frame == null) {
+            // racing threads encode the same frame, either can be kept
+            frame = this.isBinary() ? this.data : PacketType.MESSAGE.encoded + this.data;
+            this.frame = frame;
+        }
+        return frame;
+    }
+
+    /**
+     * Returns the packet encoded as a part of a polling payload, without separator.
+     *
+     * @return the UTF-8 bytes of the part.
+     */
+    public ByteString payloadFrame() {
+        ByteString payloadFrame = this.payloadFrame;
+        if (payloadFrame == null) {
+            if (this.isBinary()) {
+                Buffer buffer = new Buffer().writeByte('b');
+                try {
+                    // a read-only view, encoded without copying the whole payload first
+                    Base64Codec.encode(((ByteString) this.data).asByteBuffer(), buffer);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+                payloadFrame = buffer.readByteString();
+            } else {
+                payloadFrame = ByteString.encodeUtf8((String) this.frame());
+            }
+            this.payloadFrame = payloadFrame;
+        }
+        return payloadFrame;
+    }
+}
@@ -0,0 +1,28 @@
+package io.socket.engineio.parser;
+
+
+import java.net.ProtocolException;
+
+/**
+ * Thrown when a received message or payload is larger than allowed by
+ * {@link Parser.Options#maxMessageSize} or {@link Parser.Options#maxPayloadSize}. It is thrown
+ * as soon as the limit is crossed, before the rest of the data is read.
+ */
+public class SizeLimitExceededException extends ProtocolException {
+
+    /**
+     * The limit which was crossed, in bytes.
+     */
+    public final long limit;
+
+    /**
+     * Whether the limit is the one of the whole payload rather than of a single message.
+     */
+    public final boolean payload;
+
+    public SizeLimitExceededException(long limit, boolean payload) {
+        super((payload ? "payload" : "message") + " exceeds " + limit + " bytes");
+        this.limit = limit;
+        this.payload = payload;
+    }
+}
@@ -0,0 +1,64 @@
+package io.socket.engineio.parser;
+
+
+/**
+ * A read-only view over a range of a string. The range is only copied when {@link #toString()}
+ * is called, and the copy is cached.
+ */
+public final class StringSlice implements CharSequence {
+
+    private final String source;
+    private final int start;
+    private final int end;
+    private String string;
+
+    public StringSlice(String source, int start, int end) {
+        if (start < 0 || end > source.length() || start > end) {
+            throw new IndexOutOfBoundsException(String.format("[%d, %d) of %d", start, end, source.length()));
+        }
+        this.source = source;
+        this.start = start;
+        this.end = end;
+    }
+
+    /*package*/ String source() {
+        return this.source;
+    }
+
+    /*package*/ int start() {
+        return this.start;
+    }
+
+    /*package*/ int end() {
+        return this.end;
+    }
+
+    @Override
+    public int length() {
+        return this.end - this.start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= this.length()) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return this.source.charAt(this.start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > this.length() || start > end) {
+            throw new IndexOutOfBoundsException(String.format("[%d, %d) of %d", start, end, this.length()));
+        }
+        return new StringSlice(this.source, this.start + start, this.start + end);
+    }
+
+    @Override
+    public String toString() {
+        if (this.string == null) {
+            this.string = this.source.substring(this.start, this.end);
+        }
+        return this.string;
+    }
+}
@@ -0,0 +1,63 @@
+package io.socket.engineio.parser;
+
+
+/**
+ * A packet carrying text data.
+ * <p>
+ * The text may be held as a {@link CharSequence} body, such as a {@link StringSlice} over the
+ * received frame, in which case {@link #data} stays null until {@link #text()} is called.
+ */
+public class TextPacket extends Packet<String> {
+
+    private CharSequence body;
+
+    public TextPacket(PacketType type) {
+        this(type, (String) null);
+    }
+
+    public TextPacket(PacketType type, String data) {
+        super(type, data);
+    }
+
+    public TextPacket(PacketType type, CharSequence body) {
+        super(type, body instanceof String ? (String) body : null);
+        this.body = body;
+    }
+
+    /*package*/ void setBody(CharSequence body) {
+        this.body = body;
+    }
+
+    @Override
+    /*package*/ void init(PacketType type, String data) {
+        super.init(type, data);
+        this.body = null;
+    }
+
+    @Override
+    /*package*/ void reset() {
+        super.reset();
+        this.body = null;
+    }
+
+    /**
+     * Returns the text without copying it.
+     *
+     * @return the text, or null if there is none.
+     */
+    public CharSequence body() {
+        return this.data != null ? this.data : this.body;
+    }
+
+    /**
+     * Returns the text as a string, copying the body on the first call.
+     *
+     * @return the text, or null if there is none.
+     */
+    public String text() {
+        if (this.data == null && this.body != null) {
+            this.data = this.body.toString();
+        }
+        return this.data;
+    }
+}
@@ -0,0 +1,124 @@
+package io.socket.thread;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A bounded lock-free queue for many producer threads and a single consumer thread, e.g.
+ * {@link EventThread}. Producers claim a slot by moving the producer index forward and then
+ * publish their element into it; the consumer takes elements in order, waiting for claimed slots
+ * to be published.
+ *
+ * @param <E> the type of elements.
+ */
+public class MpscArrayQueue<E> {
+
+    private final AtomicReferenceArray<E> buffer;
+    private final int mask;
+    private final int capacity;
+
+    private final AtomicLong producerIndex = new AtomicLong();
+    private final AtomicLong consumerIndex = new AtomicLong();
+    // a bound of the producer index under which slots are known to be free
+    private volatile long producerLimit;
+
+    /**
+     * Creates a queue.
+     *
+     * @param capacity the minimum capacity, rounded up to a power of two.
+     */
+    public MpscArrayQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("invalid capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.capacity = size;
+        this.producerLimit = size;
+    }
+
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Adds an element, from any thread.
+     *
+     * @param e
+     * @return false if the queue is full.
+     */
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+
+        long index;
+        do {
+            index = this.producerIndex.get();
+            if (index >= this.producerLimit) {
+                long limit = this.consumerIndex.get() + this.capacity;
+                if (index >= limit) {
+                    return false;
+                }
+                this.producerLimit = limit;
+            }
+        } while (!this.producerIndex.compareAndSet(index, index + 1));
+
+        this.buffer.lazySet((int) index & this.mask, e);
+        return true;
+    }
+
+    /**
+     * Removes the first element, from the consumer thread only.
+     *
+     * @return the element, or null if the queue is empty.
+     */
+    public E poll() {
+        long index = this.consumerIndex.get();
+        int offset = (int) index & this.mask;
+        E e = this.buffer.get(offset);
+        if (e == null) {
+            if (index == this.producerIndex.get()) {
+                return null;
+            }
+            // the slot is claimed but not published yet
+            do {
+                e = this.buffer.get(offset);
+            } while (e == null);
+        }
+        this.buffer.lazySet(offset, null);
+        this.consumerIndex.lazySet(index + 1);
+        return e;
+    }
+
+    /**
+     * Removes the elements in the queue and passes them to the consumer, from the consumer thread
+     * only. Elements added meanwhile are drained as well, up to the capacity of the queue.
+     *
+     * @param consumer
+     * @return the number of drained elements.
+     */
+    public int drain(Consumer<? super E> consumer) {
+        int count = 0;
+        E e;
+        while (count < this.capacity && (e = this.poll()) != null) {
+            consumer.accept(e);
+            count++;
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return this.consumerIndex.get() == this.producerIndex.get();
+    }
+
+    public int size() {
+        long consumer = this.consumerIndex.get();
+        long producer = this.producerIndex.get();
+        return (int) Math.max(0, Math.min(producer - consumer, this.capacity));
+    }
+}
@@ -1,10 +1,16 @@
 package io.socket.engineio.client;
 
 import io.socket.engineio.client.transports.Polling;
+import io.socket.engineio.parser.BufferPool;
+import io.socket.engineio.parser.Parser;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import okio.BufferedSink;
+import okio.BufferedSource;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -43,6 +49,39 @@ public class BinaryPollingTest extends Connection {
         socket.close();
     }
 
+    @Test(timeout = TIMEOUT)
+    public void receiveBinaryDataWithProtocolV3() throws InterruptedException {
+        final BlockingQueue<Object> values = new LinkedBlockingQueue<>();
+
+        final byte[] binaryData = new byte[5];
+        for (int i = 0; i < binaryData.length; i++) {
+            binaryData[i] = (byte)i;
+        }
+        Socket.Options opts = new Socket.Options();
+        opts.port = PORT;
+        opts.transports = new String[] {Polling.NAME};
+        opts.protocol = Parser.PROTOCOL_V3;
+
+        socket = new Socket(opts);
+        socket.on(Socket.EVENT_OPEN, args -> {
+            socket.send(binaryData);
+            socket.send("cash money €€€");
+            socket.on(Socket.EVENT_MESSAGE, args1 -> {
+                if ("hi".equals(args1[0])) return;
+
+                values.offer(args1[0]);
+            });
+        });
+        socket.on(Socket.EVENT_PONG, args -> values.offer("pong"));
+        socket.open();
+
+        assertThat((byte[])values.take(), is(binaryData));
+        assertThat((String)values.take(), is("cash money €€€"));
+        // the client pings with protocol v3
+        assertThat((String)values.take(), is("pong"));
+        socket.close();
+    }
+
     @Test(timeout = TIMEOUT)
     public void receiveBinaryDataAndMultibyteUTF8String() throws InterruptedException {
         final BlockingQueue<Object> values = new LinkedBlockingQueue<>();
@@ -73,4 +112,126 @@ public class BinaryPollingTest extends Connection {
         assertThat((String)values.take(), is("cash money €€€"));
         socket.close();
     }
+
+    @Test(timeout = TIMEOUT)
+    public void receiveBinaryDataIntoPooledBuffers() throws InterruptedException {
+        final BlockingQueue<Object> values = new LinkedBlockingQueue<>();
+
+        final byte[] binaryData = new byte[5];
+        for (int i = 0; i < binaryData.length; i++) {
+            binaryData[i] = (byte)i;
+        }
+        final BufferPool pool = new BufferPool(true);
+        Socket.Options opts = new Socket.Options();
+        opts.port = PORT;
+        opts.transports = new String[] {Polling.NAME};
+        opts.bufferPool = pool;
+
+        socket = new Socket(opts);
+        socket.on(Socket.EVENT_OPEN, args -> {
+            socket.send(binaryData);
+            socket.on(Socket.EVENT_MESSAGE, args1 -> {
+                if ("hi".equals(args1[0])) return;
+
+                ByteBuffer buffer = (ByteBuffer) args1[0];
+                byte[] copy = new byte[buffer.remaining()];
+                buffer.duplicate().get(copy);
+                values.offer(copy);
+                values.offer(buffer.isDirect());
+            });
+        });
+        socket.open();
+
+        assertThat((byte[])values.take(), is(binaryData));
+        assertThat((Boolean)values.take(), is(true));
+        socket.close();
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void sendAndReceiveWithBinaryMessageCodec() throws InterruptedException {
+        final BlockingQueue<Object> values = new LinkedBlockingQueue<>();
+
+        final MessageCodec<int[]> codec = new MessageCodec<int[]>() {
+            @Override
+            public boolean isBinary() {
+                return true;
+            }
+
+            @Override
+            public void encode(int[] message, BufferedSink sink) throws IOException {
+                for (int value : message) {
+                    sink.writeInt(value);
+                }
+            }
+
+            @Override
+            public int[] decode(BufferedSource source) throws IOException {
+                int[] message = new int[(int) (source.getBuffer().size() / 4)];
+                for (int i = 0; i < message.length; i++) {
+                    message[i] = source.readInt();
+                }
+                return message;
+            }
+        };
+        Socket.Options opts = new Socket.Options();
+        opts.port = PORT;
+        opts.transports = new String[] {Polling.NAME};
+        opts.messageCodec = codec;
+
+        socket = new Socket(opts);
+        socket.on(Socket.EVENT_OPEN, args -> {
+            socket.send(new int[] {1, -1, Integer.MAX_VALUE}, codec, null);
+            socket.on(Socket.EVENT_MESSAGE, args1 -> {
+                int[] message = (int[]) args1[0];
+                if (message.length == 0) return;
+
+                values.offer(message);
+            });
+        });
+        socket.open();
+
+        assertThat((int[])values.take(), is(new int[] {1, -1, Integer.MAX_VALUE}));
+        socket.close();
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void sendGatheredParts() throws InterruptedException {
+        final BlockingQueue<Object> values = new LinkedBlockingQueue<>();
+
+        final byte[] body = new byte[100000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+        final ByteBuffer header = ByteBuffer.wrap(new byte[] {1, 2, 3});
+        final ByteBuffer direct = ByteBuffer.allocateDirect(2);
+        direct.put((byte) 4).put((byte) 5).flip();
+        Socket.Options opts = new Socket.Options();
+        opts.port = PORT;
+        opts.transports = new String[] {Polling.NAME};
+
+        socket = new Socket(opts);
+        socket.on(Socket.EVENT_OPEN, args -> {
+            socket.send(header, direct, ByteBuffer.wrap(body));
+            socket.send(direct);
+            socket.on(Socket.EVENT_MESSAGE, args1 -> {
+                if ("hi".equals(args1[0])) return;
+
+                values.offer(args1[0]);
+            });
+        });
+        socket.open();
+
+        byte[] expected = new byte[5 + body.length];
+        expected[0] = 1;
+        expected[1] = 2;
+        expected[2] = 3;
+        expected[3] = 4;
+        expected[4] = 5;
+        System.arraycopy(body, 0, expected, 5, body.length);
+        assertThat((byte[])values.take(), is(expected));
+        assertThat((byte[])values.take(), is(new byte[] {4, 5}));
+        // the parts are left unchanged
+        assertThat(header.remaining(), is(3));
+        socket.close();
+    }
 }
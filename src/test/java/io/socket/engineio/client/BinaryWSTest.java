@@ -1,9 +1,13 @@
 package io.socket.engineio.client;
 
+import io.socket.engineio.client.transports.WebSocket;
+import io.socket.engineio.parser.Parser;
+import okio.Buffer;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -68,4 +72,53 @@ public class BinaryWSTest extends Connection {
         assertThat((String)values.take(), is("cash money €€€"));
         socket.close();
     }
+
+    @Test(timeout = TIMEOUT)
+    public void receiveBinaryDataWithProtocolV3() throws InterruptedException {
+        final BlockingQueue<Object> values = new LinkedBlockingQueue<>();
+
+        final byte[] binaryData = new byte[5];
+        for (int i = 0; i < binaryData.length; i++) {
+            binaryData[i] = (byte)i;
+        }
+        Socket.Options opts = new Socket.Options();
+        opts.port = PORT;
+        opts.protocol = Parser.PROTOCOL_V3;
+        socket = new Socket(opts);
+        socket.on(Socket.EVENT_OPEN, args -> socket.on(Socket.EVENT_UPGRADE, args2 -> {
+            socket.send(binaryData);
+            socket.on(Socket.EVENT_MESSAGE, args1 -> {
+                if (args1[0] instanceof String) return;
+                values.offer(args1[0]);
+            });
+        }));
+        socket.open();
+
+        assertThat((byte[])values.take(), is(binaryData));
+        socket.close();
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void sendGatheredParts() throws InterruptedException {
+        final BlockingQueue<Object> values = new LinkedBlockingQueue<>();
+
+        Socket.Options opts = new Socket.Options();
+        opts.port = PORT;
+        opts.transports = new String[] {WebSocket.NAME};
+        socket = new Socket(opts);
+        socket.on(Socket.EVENT_OPEN, args -> {
+            socket.send(ByteBuffer.wrap(new byte[] {1, 2}), ByteBuffer.wrap(new byte[] {3}));
+            socket.send(new Buffer().writeByte(4));
+            socket.on(Socket.EVENT_MESSAGE, args1 -> {
+                if ("hi".equals(args1[0])) return;
+
+                values.offer(args1[0]);
+            });
+        });
+        socket.open();
+
+        assertThat((byte[])values.take(), is(new byte[] {1, 2, 3}));
+        assertThat((byte[])values.take(), is(new byte[] {4}));
+        socket.close();
+    }
 }
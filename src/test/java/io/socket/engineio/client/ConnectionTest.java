@@ -1,14 +1,27 @@
 package io.socket.engineio.client;
 
+import io.socket.engineio.client.transports.Polling;
+import io.socket.engineio.client.transports.WebSocket;
+import io.socket.engineio.parser.PacketPool;
+import io.socket.engineio.parser.SizeLimitExceededException;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import okio.BufferedSink;
+import okio.BufferedSource;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
@@ -49,6 +62,232 @@ public class ConnectionTest extends Connection {
         assertThat((String)values.take(), is("cash money €€€"));
     }
 
+    @Test(timeout = TIMEOUT)
+    public void forwardLazyMessages() throws InterruptedException {
+        final BlockingQueue<Object> values = new LinkedBlockingQueue<>();
+
+        Socket.Options opts = createOptions();
+        opts.lazyMessages = true;
+        socket = new Socket(opts);
+        socket.on(Socket.EVENT_OPEN, args -> socket.on(Socket.EVENT_MESSAGE, args1 -> {
+            CharSequence msg = (CharSequence) args1[0];
+            if ("hi".contentEquals(msg)) {
+                socket.send("cash money €€€");
+                return;
+            }
+            if (values.isEmpty()) {
+                values.offer(msg.toString());
+                // echo the view back as is
+                socket.send(msg);
+                return;
+            }
+            values.offer(msg.toString());
+            socket.close();
+        }));
+        socket.open();
+
+        assertThat((String)values.take(), is("cash money €€€"));
+        assertThat((String)values.take(), is("cash money €€€"));
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void sendAndReceiveWithPacketPool() throws InterruptedException {
+        final BlockingQueue<Object> values = new LinkedBlockingQueue<>();
+        final PacketPool pool = new PacketPool();
+
+        Socket.Options opts = createOptions();
+        opts.packetPool = pool;
+        socket = new Socket(opts);
+        socket.on(Socket.EVENT_OPEN, args -> {
+            socket.send("cash money €€€");
+            socket.on(Socket.EVENT_MESSAGE, args1 -> {
+                if ("hi".equals(args1[0])) return;
+                values.offer(args1[0]);
+                socket.close();
+            });
+        });
+        socket.open();
+
+        assertThat((String)values.take(), is("cash money €€€"));
+        assertThat(pool.size() > 0, is(true));
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void sendAndReceiveWithMessageCodec() throws InterruptedException {
+        final BlockingQueue<Object> values = new LinkedBlockingQueue<>();
+
+        Socket.Options opts = createOptions();
+        opts.messageCodec = new MessageCodec<StringBuilder>() {
+            @Override
+            public void encode(StringBuilder message, BufferedSink sink) throws IOException {
+                sink.writeUtf8(message.reverse().toString());
+            }
+
+            @Override
+            public StringBuilder decode(BufferedSource source) throws IOException {
+                return new StringBuilder(source.readUtf8()).reverse();
+            }
+        };
+        socket = new Socket(opts);
+        socket.on(Socket.EVENT_OPEN, args -> {
+            socket.send((Object) new StringBuilder("cash money €€€"));
+            socket.on(Socket.EVENT_MESSAGE, args1 -> {
+                values.offer(args1[0].toString());
+                if (values.size() == 2) socket.close();
+            });
+        });
+        socket.open();
+
+        assertThat((String)values.take(), is("ih"));
+        assertThat((String)values.take(), is("cash money €€€"));
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void broadcastPreEncodedMessages() throws InterruptedException {
+        final BlockingQueue<Object> values = new LinkedBlockingQueue<>();
+        final CountDownLatch opened = new CountDownLatch(2);
+
+        List<Socket> sockets = new ArrayList<>();
+        for (String transport : new String[] {Polling.NAME, WebSocket.NAME}) {
+            Socket.Options opts = createOptions();
+            opts.transports = new String[] {transport};
+            final Socket socket = new Socket(opts);
+            socket.on(Socket.EVENT_MESSAGE, args -> {
+                if ("hi".equals(args[0])) {
+                    opened.countDown();
+                    return;
+                }
+                values.offer(args[0] instanceof byte[] ? Arrays.toString((byte[]) args[0]) : args[0]);
+            });
+            socket.open();
+            sockets.add(socket);
+        }
+        opened.await();
+
+        Socket.broadcast(sockets, PreEncodedMessage.text("cash money €€€"));
+        Socket.broadcast(sockets, PreEncodedMessage.binary(new byte[] {1, 2, 3}));
+
+        // each socket echoes both messages in order, the sockets themselves interleave
+        List<Object> received = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            received.add(values.take());
+        }
+        assertThat(Collections.frequency(received, "cash money €€€"), is(2));
+        assertThat(Collections.frequency(received, "[1, 2, 3]"), is(2));
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void failOnMessagesOverSizeLimit() throws InterruptedException {
+        final BlockingQueue<Object> values = new LinkedBlockingQueue<>();
+        final char[] large = new char[2000];
+        Arrays.fill(large, 'a');
+
+        for (String transport : new String[] {Polling.NAME, WebSocket.NAME}) {
+            Socket.Options opts = createOptions();
+            opts.transports = new String[] {transport};
+            opts.maxMessageSize = 1000;
+            final Socket socket = new Socket(opts);
+            socket.on(Socket.EVENT_OPEN, args -> socket.send(new String(large)));
+            socket.on(Socket.EVENT_ERROR, args -> values.offer(args[0]));
+            socket.on(Socket.EVENT_CLOSE, args -> values.offer(args[0]));
+            socket.open();
+
+            EngineIOException err = (EngineIOException) values.take();
+            assertThat(err.getMessage(), is("size limit exceeded"));
+            assertThat(((SizeLimitExceededException) err.getCause()).limit, is(1000L));
+            assertThat(values.take(), is((Object) "transport error"));
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void completeSendFutures() throws InterruptedException {
+        final BlockingQueue<Object> values = new LinkedBlockingQueue<>();
+
+        socket = new Socket(createOptions());
+        socket.on(Socket.EVENT_OPEN, args -> {
+            socket.sendAsync("hello").whenComplete((result, err) -> values.offer(err == null ? "written" : err));
+            socket.on(Socket.EVENT_MESSAGE, args1 -> {
+                if ("hi".equals(args1[0])) return;
+                values.offer(args1[0]);
+                socket.close();
+            });
+        });
+        socket.on(Socket.EVENT_CLOSE, args -> socket.sendAsync("late").whenComplete((result, err) -> values.offer(err)));
+        socket.open();
+
+        // the echo may come before the request carrying the message is over
+        List<Object> written = Arrays.asList(values.take(), values.take());
+        assertThat(written.contains("written"), is(true));
+        assertThat(written.contains("hello"), is(true));
+        assertThat(values.take(), instanceOf(EngineIOException.class));
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void sendAllInOneRequest() throws InterruptedException {
+        final BlockingQueue<Object> values = new LinkedBlockingQueue<>();
+
+        Socket.Options opts = createOptions();
+        opts.transports = new String[] {Polling.NAME};
+        socket = new Socket(opts);
+        socket.on(Socket.EVENT_OPEN, args -> {
+            socket.on(Socket.EVENT_FLUSH, args1 -> values.offer("flush"));
+            socket.on(Socket.EVENT_MESSAGE, args1 -> {
+                if ("hi".equals(args1[0])) return;
+                values.offer(args1[0]);
+                if ("c".equals(args1[0])) {
+                    socket.close();
+                }
+            });
+            socket.sendAll(Arrays.asList("a", "b", "c"));
+        });
+        socket.open();
+
+        assertThat(values.take(), is((Object) "flush"));
+        assertThat(values.take(), is((Object) "a"));
+        assertThat(values.take(), is((Object) "b"));
+        assertThat(values.take(), is((Object) "c"));
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void splitFlushesOverMaxPayload() throws InterruptedException {
+        final BlockingQueue<Object> values = new LinkedBlockingQueue<>();
+        final char[] chars = new char[400 * 1000];
+        final List<String> messages = new ArrayList<>();
+        for (char c = 'a'; c <= 'c'; c++) {
+            Arrays.fill(chars, c);
+            messages.add(new String(chars));
+        }
+        final int[] flushes = new int[1];
+
+        Socket.Options opts = createOptions();
+        opts.transports = new String[] {Polling.NAME};
+        socket = new Socket(opts);
+        socket.on(Socket.EVENT_HANDSHAKE, args -> values.offer(((HandshakeData) args[0]).maxPayload));
+        socket.on(Socket.EVENT_OPEN, args -> {
+            socket.on(Socket.EVENT_FLUSH, args1 -> flushes[0]++);
+            socket.on(Socket.EVENT_MESSAGE, args1 -> {
+                if ("hi".equals(args1[0])) return;
+                values.offer(args1[0]);
+                if (((String) args1[0]).startsWith("c")) {
+                    values.offer(flushes[0]);
+                    socket.close();
+                }
+            });
+            // over the 1e6 bytes the server accepts in a request
+            socket.sendAll(messages);
+        });
+        socket.open();
+
+        assertThat(values.take(), is((Object) 1000000L));
+        assertThat(values.take(), is((Object) messages.get(0)));
+        assertThat(values.take(), is((Object) messages.get(1)));
+        assertThat(values.take(), is((Object) messages.get(2)));
+        assertThat(values.take(), is((Object) 2));
+    }
+
     @Test(timeout = TIMEOUT)
     public void receiveEmoji() throws InterruptedException {
         final BlockingQueue<Object> values = new LinkedBlockingQueue<>();
@@ -0,0 +1,62 @@
+package io.socket.engineio.client;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnit4.class)
+public class HandshakeDataTest {
+
+    @Test
+    public void parse() throws EngineIOException {
+        HandshakeData data = new HandshakeData("{\"sid\":\"lv_VI97HAXpY6yYWAAAC\",\"upgrades\":[\"websocket\"],"
+                + "\"pingInterval\":25000,\"pingTimeout\":20000,\"maxPayload\":1000000}");
+        assertThat(data.sid, is("lv_VI97HAXpY6yYWAAAC"));
+        assertThat(data.upgrades, is(new String[] {"websocket"}));
+        assertThat(data.pingInterval, is(25000L));
+        assertThat(data.pingTimeout, is(20000L));
+        assertThat(data.maxPayload, is(1000000L));
+    }
+
+    @Test
+    public void parseWithWhitespaceEscapesAndUnknownFields() throws EngineIOException {
+        HandshakeData data = new HandshakeData(" { \"extra\" : {\"a\": [1, 2.5e3, true, null, \"}\"]},\n"
+                + "\"sid\" : \"a\\\"b\\u00e9\", \"upgrades\" : [ ], \"pingInterval\" : 1, \"pingTimeout\" : 2 } ");
+        assertThat(data.sid, is("a\"bé"));
+        assertThat(data.upgrades.length, is(0));
+        assertThat(data.pingInterval, is(1L));
+        assertThat(data.pingTimeout, is(2L));
+        assertThat(data.maxPayload, is(0L));
+    }
+
+    @Test(expected = EngineIOException.class)
+    public void rejectMissingFields() throws EngineIOException {
+        new HandshakeData("{\"sid\":\"a\",\"upgrades\":[],\"pingInterval\":1}");
+    }
+
+    @Test(expected = EngineIOException.class)
+    public void rejectMalformedData() throws EngineIOException {
+        new HandshakeData("{\"sid\":\"a\",\"upgrades\":[\"websocket\"");
+    }
+
+    @Test(expected = EngineIOException.class)
+    public void rejectTrailingData() throws EngineIOException {
+        new HandshakeData("{\"sid\":\"a\",\"upgrades\":[],\"pingInterval\":1,\"pingTimeout\":2}x");
+    }
+
+    @Test
+    public void rejectDeeplyNestedFields() {
+        StringBuilder nested = new StringBuilder();
+        for (int i = 0; i < 100000; i++) nested.append("[{\"a\":");
+        try {
+            new HandshakeData("{\"extra\":" + nested + "}");
+            fail();
+        } catch (EngineIOException e) {
+            assertThat(e.getMessage(), containsString("too deeply nested"));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package io.socket.engineio.client;
+
+import io.socket.engineio.parser.BinaryPacket;
+import io.socket.engineio.parser.BufferPacket;
+import io.socket.engineio.parser.Packet;
+import io.socket.engineio.parser.PacketType;
+import io.socket.engineio.parser.PreEncodedPacket;
+import io.socket.engineio.parser.TextPacket;
+import okio.Buffer;
+import okio.ByteString;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(JUnit4.class)
+public class JournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recoverPendingMessages() throws IOException {
+        File dir = this.folder.newFolder();
+        Journal journal = new Journal(dir, 1024, 0);
+        long a = journal.append(new TextPacket(PacketType.MESSAGE, "a"));
+        long b = journal.append(new BinaryPacket(new byte[] {1, 2}));
+        journal.append(new TextPacket(PacketType.MESSAGE, ""));
+        journal.append(new PreEncodedPacket("d"));
+        journal.append(new BufferPacket(new Buffer().writeUtf8("é"), false));
+        journal.done(a);
+        assertThat(journal.pendingCount(), is(4));
+        journal.close();
+
+        journal = new Journal(dir, 1024, 0);
+        List<Long> records = journal.pendingRecords();
+        assertThat(records.size(), is(4));
+        assertThat(records.get(0), is(b));
+        Packet binary = journal.read(records.get(0));
+        assertThat(binary, instanceOf(BinaryPacket.class));
+        assertThat(ByteString.of(((BinaryPacket) binary).bytes()), is(ByteString.of((byte) 1, (byte) 2)));
+        assertThat(journal.read(records.get(1)).data, is((Object) ""));
+        assertThat(journal.read(records.get(2)).data, is((Object) "d"));
+        assertThat(journal.read(records.get(3)).data, is((Object) "é"));
+        journal.close();
+    }
+
+    @Test
+    public void reuseSegments() throws IOException {
+        File dir = this.folder.newFolder();
+        Journal journal = new Journal(dir, 64, 10);
+        for (int i = 0; i < 100; i++) {
+            long record = journal.append(new TextPacket(PacketType.MESSAGE, "message " + i));
+            journal.done(record);
+        }
+        assertThat(journal.pendingCount(), is(0));
+        assertThat(dir.list().length <= 2, is(true));
+
+        long record = journal.append(new TextPacket(PacketType.MESSAGE, "last"));
+        journal.close();
+        journal = new Journal(dir, 64, 10);
+        assertThat(journal.pendingRecords().size(), is(1));
+        assertThat(journal.read(record).data, is((Object) "last"));
+        journal.close();
+    }
+
+    @Test
+    public void skipMessagesLargerThanSegments() throws IOException {
+        Journal journal = new Journal(this.folder.newFolder(), 64, 0);
+        assertThat(journal.append(new BinaryPacket(new byte[100])), is(-1L));
+        assertThat(journal.pendingCount(), is(0));
+        journal.close();
+    }
+}
@@ -0,0 +1,146 @@
+package io.socket.engineio.client;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(JUnit4.class)
+public class MemoryBudgetTest {
+
+    @Test
+    public void reserveAndRelease() {
+        MemoryBudget budget = new MemoryBudget(10);
+        assertThat(budget.tryReserve(6), is(true));
+        assertThat(budget.tryReserve(6), is(false));
+        assertThat(budget.usedBytes(), is(6L));
+        assertThat(budget.isExhausted(), is(false));
+
+        budget.reserve(6);
+        assertThat(budget.isExhausted(), is(true));
+        budget.release(6);
+        assertThat(budget.tryReserve(4), is(true));
+        assertThat(budget.usedBytes(), is(10L));
+    }
+
+    @Test
+    public void awaitRelease() throws InterruptedException {
+        final MemoryBudget budget = new MemoryBudget(10);
+        budget.reserve(10);
+
+        new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            budget.release(5);
+        }).start();
+
+        long start = System.nanoTime();
+        budget.await(5, TimeUnit.SECONDS.toNanos(10));
+        assertThat(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), is(true));
+        assertThat(budget.tryReserve(5), is(true));
+    }
+
+    @Test
+    public void noLimit() {
+        MemoryBudget budget = new MemoryBudget(0);
+        assertThat(budget.tryReserve(Long.MAX_VALUE / 2), is(true));
+        assertThat(budget.isExhausted(), is(false));
+    }
+
+    @Test
+    public void watchHeap() {
+        HeapPool heap = new HeapPool("watchHeap", 0);
+        NotificationBroadcasterSupport emitter = new NotificationBroadcasterSupport();
+        MemoryBudget budget = new MemoryBudget(0).watchHeap(0.5, Arrays.asList(heap.pool), emitter);
+        assertThat(heap.threshold, is(500L));
+
+        heap.used = 600;
+        emitter.sendNotification(new Notification(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED, heap, 1));
+        assertThat(budget.isExhausted(), is(true));
+        assertThat(budget.tryReserve(1), is(false));
+
+        heap.used = 100;
+        assertThat(budget.isExhausted(), is(false));
+        assertThat(budget.tryReserve(1), is(true));
+
+        budget.close();
+        assertThat(heap.threshold, is(0L));
+        heap.used = 600;
+        emitter.sendNotification(new Notification(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED, heap, 2));
+        assertThat(budget.isExhausted(), is(false));
+    }
+
+    @Test
+    public void keepThresholdsOfOthers() {
+        HeapPool heap = new HeapPool("keepThresholdsOfOthers", 700);
+        NotificationBroadcasterSupport emitter = new NotificationBroadcasterSupport();
+        MemoryBudget budget = new MemoryBudget(0).watchHeap(0.5, Arrays.asList(heap.pool), emitter);
+        assertThat(heap.threshold, is(700L));
+
+        heap.used = 800;
+        emitter.sendNotification(new Notification(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED, heap, 1));
+        assertThat(budget.isExhausted(), is(true));
+        budget.close();
+        assertThat(heap.threshold, is(700L));
+    }
+
+    @Test
+    public void shareThresholds() {
+        HeapPool heap = new HeapPool("shareThresholds", 0);
+        NotificationBroadcasterSupport emitter = new NotificationBroadcasterSupport();
+        MemoryBudget first = new MemoryBudget(0).watchHeap(0.8, Arrays.asList(heap.pool), emitter);
+        MemoryBudget second = new MemoryBudget(0).watchHeap(0.5, Arrays.asList(heap.pool), emitter);
+        assertThat(heap.threshold, is(500L));
+
+        heap.used = 600;
+        emitter.sendNotification(new Notification(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED, heap, 1));
+        assertThat(first.isExhausted(), is(false));
+        assertThat(second.isExhausted(), is(true));
+
+        second.close();
+        assertThat(heap.threshold, is(800L));
+        first.close();
+        assertThat(heap.threshold, is(0L));
+    }
+
+    // a heap pool of 1000 bytes
+    static class HeapPool {
+
+        final MemoryPoolMXBean pool;
+        volatile long threshold;
+        volatile long used;
+
+        HeapPool(final String name, long threshold) {
+            this.threshold = threshold;
+            this.pool = (MemoryPoolMXBean) Proxy.newProxyInstance(MemoryPoolMXBean.class.getClassLoader(),
+                    new Class<?>[] {MemoryPoolMXBean.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getName": return name;
+                    case "getType": return MemoryType.HEAP;
+                    case "isCollectionUsageThresholdSupported": return true;
+                    case "getUsage": return new MemoryUsage(0, this.used, 1000, 1000);
+                    case "getCollectionUsage": return new MemoryUsage(0, this.used, 1000, 1000);
+                    case "getCollectionUsageThreshold": return this.threshold;
+                    case "setCollectionUsageThreshold": this.threshold = (Long) args[0]; return null;
+                    case "isCollectionUsageThresholdExceeded": return this.threshold > 0 && this.used >= this.threshold;
+                    default: throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package io.socket.engineio.client;
+
+import io.socket.engineio.client.compression.CompressionDictionary;
+import io.socket.engineio.client.compression.DictionaryCodec;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(JUnit4.class)
+public class PreEncodedMessageTest {
+
+    static final MessageCodec<String> TEXT = new MessageCodec<String>() {
+        @Override
+        public void encode(String message, BufferedSink sink) throws IOException {
+            sink.writeUtf8(message);
+        }
+
+        @Override
+        public String decode(BufferedSource source) throws IOException {
+            return source.readUtf8();
+        }
+    };
+
+    @Test
+    public void encodeCompressedMessagesAsBinary() throws IOException {
+        String message = "{\"status\":\"ok\",\"status\":\"ok\",\"status\":\"ok\"}";
+        DictionaryCodec<String> codec = new DictionaryCodec<>(TEXT, new CompressionDictionary(1, "{\"status\":\"ok\"}".getBytes()));
+
+        PreEncodedMessage compressed = PreEncodedMessage.of(message, codec);
+        assertThat(compressed.isBinary(), is(true));
+        Buffer frame = new Buffer().write((ByteString) compressed.packet.frame());
+        assertThat(codec.decode(frame), is(message));
+
+        codec.useDictionary(null);
+        PreEncodedMessage plain = PreEncodedMessage.of(message, codec);
+        assertThat(plain.isBinary(), is(false));
+        assertThat(plain.packet.frame(), is((Object) ("4" + message)));
+        codec.close();
+    }
+}
@@ -67,6 +67,7 @@ public class ServerConnectionTest extends Connection {
         assertThat(data.upgrades, is(not(emptyArray())));
         assertThat(data.pingTimeout, is(greaterThan((long) 0)));
         assertThat(data.pingInterval, is(greaterThan((long) 0)));
+        assertThat(data.maxPayload, is(greaterThan((long) 0)));
         socket.close();
     }
 
@@ -0,0 +1,636 @@
+package io.socket.engineio.client;
+
+import io.socket.engineio.client.transports.WebSocket;
+import io.socket.engineio.parser.Packet;
+import io.socket.thread.EventThread;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnit4.class)
+public class WriteBufferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Socket socket;
+    private volatile StalledWebSocket webSocket;
+
+    @After
+    public void tearDown() {
+        if (this.webSocket != null) {
+            this.webSocket.resume();
+        }
+        if (this.socket != null) {
+            this.socket.close();
+        }
+    }
+
+    // a socket whose WebSocket never opens, so that sent messages stay in the write buffer
+    private Socket stalledSocket(Socket.Options opts) {
+        opts.transports = new String[] {WebSocket.NAME};
+        opts.webSocketFactory = (request, listener) -> this.webSocket = new StalledWebSocket(request, listener);
+        this.socket = new Socket(opts);
+        this.socket.open();
+        return this.socket;
+    }
+
+    private Socket openSocket(Socket.Options opts) throws InterruptedException {
+        final BlockingQueue<Object> open = new LinkedBlockingQueue<>();
+        Socket socket = this.stalledSocket(opts);
+        socket.on(Socket.EVENT_OPEN, args -> open.offer(true));
+        EventThread.exec(() -> this.webSocket.resume());
+        open.take();
+        return socket;
+    }
+
+    private List<Object> writeBuffer(final Socket socket) throws InterruptedException {
+        final BlockingQueue<List<Object>> values = new LinkedBlockingQueue<>();
+        EventThread.exec(() -> {
+            List<Object> data = new ArrayList<>();
+            for (Packet packet : socket.writeBuffer) {
+                Object value = packet.data;
+                data.add(value instanceof byte[] ? Arrays.toString((byte[]) value) : String.valueOf(value));
+            }
+            values.offer(data);
+        });
+        return values.take();
+    }
+
+    @Test
+    public void failWhenFull() throws InterruptedException {
+        Socket.Options opts = new Socket.Options();
+        opts.maxBufferedPackets = 2;
+        opts.overflowPolicy = Socket.OverflowPolicy.FAIL;
+        Socket socket = this.stalledSocket(opts);
+
+        socket.send("a");
+        socket.send("b");
+        try {
+            socket.send("c");
+            fail();
+        } catch (WriteBufferFullException e) {
+            // expected
+        }
+        assertThat(this.writeBuffer(socket), is((Object) listOf("a", "b")));
+        assertThat(socket.bufferedAmount(), is(2L));
+    }
+
+    @Test
+    public void failWhenEventThreadStalls() throws InterruptedException {
+        Socket.Options opts = new Socket.Options();
+        opts.writeQueueSize = 1;
+        opts.overflowTimeout = 100;
+        Socket socket = this.stalledSocket(opts);
+
+        final CountDownLatch stalled = new CountDownLatch(1);
+        EventThread.exec(() -> {
+            try {
+                stalled.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        socket.send("a");
+        try {
+            socket.send("b");
+            fail();
+        } catch (WriteBufferFullException e) {
+            // expected
+        } finally {
+            stalled.countDown();
+        }
+        assertThat(this.writeBuffer(socket), is((Object) listOf("a")));
+        assertThat(socket.bufferedAmount(), is(1L));
+    }
+
+    @Test
+    public void dropNewestWhenFull() throws InterruptedException {
+        Socket.Options opts = new Socket.Options();
+        opts.maxBufferedBytes = 4;
+        opts.overflowPolicy = Socket.OverflowPolicy.DROP_NEWEST;
+        Socket socket = this.stalledSocket(opts);
+
+        socket.send("ab");
+        socket.send("cd");
+        socket.send("ef");
+        assertThat(this.writeBuffer(socket), is((Object) listOf("ab", "cd")));
+    }
+
+    @Test
+    public void dropOldestWhenFull() throws InterruptedException {
+        Socket.Options opts = new Socket.Options();
+        opts.maxBufferedPackets = 2;
+        opts.overflowPolicy = Socket.OverflowPolicy.DROP_OLDEST;
+        Socket socket = this.stalledSocket(opts);
+
+        final List<String> flushed = new ArrayList<>();
+        socket.send("a", () -> flushed.add("a"));
+        socket.send("b");
+        socket.send("c");
+        assertThat(this.writeBuffer(socket), is((Object) listOf("b", "c")));
+        assertThat(socket.bufferedAmount(), is(2L));
+        assertThat(socket.listeners(Socket.EVENT_FLUSH).size(), is(0));
+    }
+
+    @Test
+    public void failFuturesOfDroppedMessages() throws InterruptedException {
+        Socket.Options opts = new Socket.Options();
+        opts.maxBufferedPackets = 1;
+        opts.overflowPolicy = Socket.OverflowPolicy.DROP_OLDEST;
+        Socket socket = this.stalledSocket(opts);
+
+        CompletableFuture<Void> a = socket.sendAsync("a");
+        CompletableFuture<Void> b = socket.sendAsync("b");
+        try {
+            a.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(WriteBufferFullException.class));
+        }
+        assertThat(b.isDone(), is(false));
+
+        this.webSocket.resume();
+        assertThat(b.join(), is(nullValue()));
+        assertThat(this.webSocket.sent, is((Object) listOf("4b")));
+    }
+
+    @Test
+    public void failFuturesOfRejectedMessages() {
+        Socket.Options opts = new Socket.Options();
+        opts.maxBufferedPackets = 1;
+        opts.overflowPolicy = Socket.OverflowPolicy.FAIL;
+        Socket socket = this.stalledSocket(opts);
+
+        socket.sendAsync("a");
+        CompletableFuture<Void> b = socket.sendAsync("b");
+        assertThat(b.isCompletedExceptionally(), is(true));
+    }
+
+    @Test
+    public void blockUntilTimeout() throws InterruptedException {
+        Socket.Options opts = new Socket.Options();
+        opts.maxBufferedPackets = 1;
+        opts.overflowTimeout = 100;
+        Socket socket = this.stalledSocket(opts);
+
+        socket.send("a");
+        long start = System.nanoTime();
+        try {
+            socket.send("b");
+            fail();
+        } catch (WriteBufferFullException e) {
+            assertThat(System.nanoTime() - start >= 100 * 1000000L, is(true));
+        }
+    }
+
+    @Test
+    public void blockUntilRoom() throws InterruptedException {
+        Socket.Options opts = new Socket.Options();
+        opts.maxBufferedPackets = 1;
+        opts.overflowTimeout = 10000;
+        final Socket socket = this.stalledSocket(opts);
+
+        socket.send("a");
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        Thread sender = new Thread(() -> {
+            try {
+                socket.send("b");
+            } catch (Exception e) {
+                error.set(e);
+            }
+        });
+        sender.start();
+        Thread.sleep(50);
+        assertThat(sender.isAlive(), is(true));
+
+        // writing the buffered message makes room
+        this.webSocket.resume();
+        sender.join(5000);
+        assertThat(sender.isAlive(), is(false));
+        assertThat(error.get(), is(nullValue()));
+    }
+
+    @Test
+    public void emitWatermarkEvents() throws InterruptedException {
+        Socket.Options opts = new Socket.Options();
+        opts.highWatermark = 10;
+        opts.lowWatermark = 5;
+        final BlockingQueue<Object[]> events = new LinkedBlockingQueue<>();
+        Socket socket = this.stalledSocket(opts);
+        socket.on(Socket.EVENT_HIGH_WATERMARK, args -> events.offer(new Object[] {Socket.EVENT_HIGH_WATERMARK, args[0]}));
+        socket.on(Socket.EVENT_LOW_WATERMARK, args -> events.offer(new Object[] {Socket.EVENT_LOW_WATERMARK, args[0]}));
+
+        socket.send("12345");
+        socket.send("67890");
+        Object[] event = events.take();
+        assertThat(event[0], is((Object) Socket.EVENT_HIGH_WATERMARK));
+        assertThat(event[1], is((Object) 10L));
+
+        this.webSocket.resume();
+        event = events.take();
+        assertThat(event[0], is((Object) Socket.EVENT_LOW_WATERMARK));
+        assertThat(event[1], is((Object) 0L));
+        assertThat(events.isEmpty(), is(true));
+    }
+
+    @Test
+    public void failOnEventThreadInsteadOfBlocking() throws InterruptedException {
+        Socket.Options opts = new Socket.Options();
+        opts.maxBufferedPackets = 1;
+        final Socket socket = this.stalledSocket(opts);
+
+        final BlockingQueue<Object> values = new LinkedBlockingQueue<>();
+        EventThread.exec(() -> {
+            socket.send("a");
+            try {
+                socket.send("b");
+                values.offer("sent");
+            } catch (WriteBufferFullException e) {
+                values.offer(e);
+            }
+        });
+        assertThat(values.take(), instanceOf(WriteBufferFullException.class));
+    }
+
+    @Test
+    public void coalesceBursts() throws InterruptedException {
+        Socket.Options opts = new Socket.Options();
+        opts.coalesceDelay = 200000;
+        opts.adaptiveCoalescing = false;
+        Socket socket = this.openSocket(opts);
+
+        final BlockingQueue<Object> flushes = new LinkedBlockingQueue<>();
+        socket.on(Socket.EVENT_FLUSH, args -> flushes.offer(true));
+        for (int i = 0; i < 10; i++) {
+            socket.send("message" + i);
+        }
+        flushes.take();
+        assertThat(this.webSocket.sent.size(), is(10));
+        Thread.sleep(100);
+        assertThat(flushes.isEmpty(), is(true));
+    }
+
+    @Test
+    public void flushCoalescedMessagesOverMaxBytes() throws InterruptedException {
+        Socket.Options opts = new Socket.Options();
+        opts.coalesceDelay = 10000000;
+        opts.coalesceMaxBytes = 4;
+        opts.adaptiveCoalescing = false;
+        Socket socket = this.openSocket(opts);
+
+        final BlockingQueue<Object> flushes = new LinkedBlockingQueue<>();
+        socket.on(Socket.EVENT_FLUSH, args -> flushes.offer(true));
+        socket.send("ab");
+        Thread.sleep(50);
+        assertThat(flushes.isEmpty(), is(true));
+        socket.send("cd");
+        flushes.take();
+        assertThat(this.webSocket.sent, is((Object) listOf("4ab", "4cd")));
+    }
+
+    @Test
+    public void holdMessagesWhileCorked() throws InterruptedException {
+        Socket socket = this.openSocket(new Socket.Options());
+
+        final BlockingQueue<Object> flushes = new LinkedBlockingQueue<>();
+        socket.on(Socket.EVENT_FLUSH, args -> flushes.offer(true));
+        socket.cork();
+        socket.cork();
+        socket.send("a");
+        socket.send("b");
+        socket.uncork();
+        Thread.sleep(50);
+        assertThat(flushes.isEmpty(), is(true));
+        assertThat(this.webSocket.sent.isEmpty(), is(true));
+
+        socket.uncork();
+        flushes.take();
+        assertThat(this.webSocket.sent, is((Object) listOf("4a", "4b")));
+        Thread.sleep(50);
+        assertThat(flushes.isEmpty(), is(true));
+    }
+
+    @Test
+    public void holdMessagesCorkedBeforeOpen() throws InterruptedException {
+        Socket.Options opts = new Socket.Options();
+        opts.transports = new String[] {WebSocket.NAME};
+        opts.webSocketFactory = (request, listener) -> this.webSocket = new StalledWebSocket(request, listener);
+        Socket socket = this.socket = new Socket(opts);
+        socket.cork();
+        socket.send("a");
+
+        final BlockingQueue<Object> open = new LinkedBlockingQueue<>();
+        socket.on(Socket.EVENT_OPEN, args -> open.offer(true));
+        socket.open();
+        EventThread.exec(() -> this.webSocket.resume());
+        open.take();
+        socket.send("b");
+        Thread.sleep(50);
+        assertThat(this.webSocket.sent.isEmpty(), is(true));
+
+        final BlockingQueue<Object> flushes = new LinkedBlockingQueue<>();
+        socket.on(Socket.EVENT_FLUSH, args -> flushes.offer(true));
+        socket.uncork();
+        flushes.take();
+        assertThat(this.webSocket.sent, is((Object) listOf("4a", "4b")));
+    }
+
+    @Test
+    public void sendAllInOneFlush() throws InterruptedException {
+        Socket socket = this.openSocket(new Socket.Options());
+
+        final BlockingQueue<Object> flushes = new LinkedBlockingQueue<>();
+        socket.on(Socket.EVENT_FLUSH, args -> flushes.offer(true));
+        socket.sendAll(Arrays.asList("a", new StringBuilder("b"), PreEncodedMessage.text("c")));
+        flushes.take();
+        assertThat(this.webSocket.sent, is((Object) listOf("4a", "4b", "4c")));
+        Thread.sleep(50);
+        assertThat(flushes.isEmpty(), is(true));
+    }
+
+    @Test
+    public void sendAllWithinLimits() throws InterruptedException {
+        Socket.Options opts = new Socket.Options();
+        opts.maxBufferedPackets = 2;
+        opts.overflowPolicy = Socket.OverflowPolicy.DROP_NEWEST;
+        Socket socket = this.stalledSocket(opts);
+
+        socket.sendAll(Arrays.asList("a", "b", "c"));
+        assertThat(this.writeBuffer(socket), is((Object) listOf("a", "b")));
+    }
+
+    @Test
+    public void replaceUnsentMessagesOfSameKey() throws InterruptedException {
+        Socket socket = this.stalledSocket(new Socket.Options());
+
+        socket.sendLatest("x", "1");
+        socket.sendLatest("y", "a");
+        socket.sendLatest("x", "2");
+        socket.send("plain");
+        socket.sendLatest("x", "3");
+        assertThat(this.writeBuffer(socket).size(), is(3));
+        assertThat(socket.bufferedAmount(), is(7L));
+
+        final BlockingQueue<Object> drained = new LinkedBlockingQueue<>();
+        socket.on(Socket.EVENT_DRAIN, args -> drained.offer(true));
+        this.webSocket.resume();
+        drained.take();
+        assertThat(this.webSocket.sent, is((Object) listOf("43", "4a", "4plain")));
+
+        // flushed messages are not replaced
+        socket.sendLatest("x", "4");
+        drained.take();
+        assertThat(this.webSocket.sent, is((Object) listOf("43", "4a", "4plain", "44")));
+        assertThat(socket.bufferedAmount(), is(0L));
+    }
+
+    @Test
+    public void dropExpiredMessages() throws InterruptedException {
+        Socket socket = this.stalledSocket(new Socket.Options());
+
+        final BlockingQueue<Object> drops = new LinkedBlockingQueue<>();
+        socket.on(Socket.EVENT_DROP, args -> drops.offer(Arrays.asList(args)));
+        socket.send("old", 20, TimeUnit.MILLISECONDS);
+        CompletableFuture<Void> future = socket.sendAsync("older", 20, TimeUnit.MILLISECONDS);
+        socket.send("fresh", 1, TimeUnit.HOURS);
+        socket.send("plain");
+        Thread.sleep(50);
+
+        final BlockingQueue<Object> drained = new LinkedBlockingQueue<>();
+        socket.on(Socket.EVENT_DRAIN, args -> drained.offer(true));
+        this.webSocket.resume();
+        drained.take();
+        assertThat(this.webSocket.sent, is((Object) listOf("4fresh", "4plain")));
+        assertThat(drops.take(), is((Object) listOf("expired", 2)));
+        assertThat(socket.droppedMessages(), is(2L));
+        assertThat(socket.bufferedAmount(), is(0L));
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(TimeoutException.class));
+        }
+    }
+
+    @Test
+    public void dropDelayedMessages() throws InterruptedException {
+        Socket.Options opts = new Socket.Options();
+        opts.codelTarget = 5;
+        opts.codelInterval = 20;
+        Socket socket = this.stalledSocket(opts);
+
+        final BlockingQueue<Object> drops = new LinkedBlockingQueue<>();
+        socket.on(Socket.EVENT_DROP, args -> drops.offer(Arrays.asList(args)));
+        socket.send("a");
+        socket.send("b");
+        socket.send("c");
+        Thread.sleep(50);
+
+        // a message is dropped once the delay stayed over the target for the interval
+        final BlockingQueue<Object> drained = new LinkedBlockingQueue<>();
+        socket.on(Socket.EVENT_DRAIN, args -> drained.offer(true));
+        this.webSocket.resume();
+        drained.take();
+        assertThat(this.webSocket.sent, is((Object) listOf("4b", "4c")));
+        assertThat(drops.take(), is((Object) listOf("queue delay", 1)));
+
+        // messages written right away are not dropped
+        socket.sendAll(Arrays.asList("d", "e"));
+        drained.take();
+        assertThat(this.webSocket.sent, is((Object) listOf("4b", "4c", "4d", "4e")));
+        assertThat(socket.droppedMessages(), is(1L));
+    }
+
+    @Test
+    public void flushByPriority() throws InterruptedException {
+        Socket.Options opts = new Socket.Options();
+        opts.priorityBudgets = new long[] {2, 4, 4};
+        Socket socket = this.stalledSocket(opts);
+
+        final List<Object> flushes = new ArrayList<>();
+        socket.on(Socket.EVENT_FLUSH, args -> flushes.add(this.webSocket.sent.size()));
+        socket.sendWithPriority("bulk1", Socket.Priority.LOW);
+        socket.sendWithPriority("bulk2", Socket.Priority.LOW);
+        socket.sendWithPriority("a", Socket.Priority.HIGH);
+        socket.sendWithPriority("b", Socket.Priority.HIGH);
+        socket.sendWithPriority("c", Socket.Priority.HIGH);
+        socket.send("n");
+        assertThat(this.writeBuffer(socket).size(), is(6));
+
+        final BlockingQueue<Object> drained = new LinkedBlockingQueue<>();
+        socket.on(Socket.EVENT_DRAIN, args -> drained.offer(true));
+        this.webSocket.resume();
+        drained.take();
+        assertThat(this.webSocket.sent, is((Object) listOf("4a", "4b", "4n", "4c", "4bulk1", "4bulk2")));
+        // the low lane waits for its budget to cover a message, then takes the rest alone
+        assertThat(flushes, is((Object) listOf(3, 5, 6)));
+    }
+
+    @Test
+    public void shareMemoryBudget() throws InterruptedException {
+        MemoryBudget budget = new MemoryBudget(4);
+        Socket.Options opts = new Socket.Options();
+        opts.memoryBudget = budget;
+        opts.overflowPolicy = Socket.OverflowPolicy.FAIL;
+        Socket first = this.stalledSocket(opts);
+        first.send("ab");
+        first.send("cd");
+        assertThat(this.writeBuffer(first).size(), is(2));
+        StalledWebSocket firstWebSocket = this.webSocket;
+
+        opts = new Socket.Options();
+        opts.memoryBudget = budget;
+        opts.overflowPolicy = Socket.OverflowPolicy.FAIL;
+        Socket second = this.stalledSocket(opts);
+        // a socket can always buffer a message
+        second.send("e");
+        assertThat(budget.usedBytes(), is(5L));
+        try {
+            second.send("f");
+            fail();
+        } catch (WriteBufferFullException e) {
+            // expected
+        }
+
+        final BlockingQueue<Object> drained = new LinkedBlockingQueue<>();
+        first.on(Socket.EVENT_DRAIN, args -> drained.offer(true));
+        firstWebSocket.resume();
+        drained.take();
+        assertThat(budget.usedBytes(), is(1L));
+        second.send("f");
+        assertThat(this.writeBuffer(second), is((Object) listOf("e", "f")));
+        first.close();
+    }
+
+    @Test
+    public void replayJournalOnOpen() throws Exception {
+        File dir = this.folder.newFolder();
+        Journal journal = new Journal(dir, 1024, 0);
+        Socket.Options opts = new Socket.Options();
+        opts.journal = journal;
+        Socket socket = this.stalledSocket(opts);
+        socket.send("a");
+        socket.send("b".getBytes("UTF-8"));
+        assertThat(this.writeBuffer(socket).size(), is(2));
+
+        final BlockingQueue<Object> closed = new LinkedBlockingQueue<>();
+        socket.on(Socket.EVENT_CLOSE, args -> closed.offer(true));
+        this.webSocket.fail();
+        closed.take();
+        assertThat(journal.pendingCount(), is(2));
+        journal.close();
+
+        journal = new Journal(dir, 1024, 0);
+        opts = new Socket.Options();
+        opts.journal = journal;
+        socket = this.stalledSocket(opts);
+        socket.send("c");
+        assertThat(this.writeBuffer(socket), is((Object) listOf("a", "[98]", "c")));
+
+        final BlockingQueue<Object> drained = new LinkedBlockingQueue<>();
+        socket.on(Socket.EVENT_DRAIN, args -> drained.offer(true));
+        this.webSocket.resume();
+        drained.take();
+        assertThat(this.webSocket.sent, is((Object) listOf("4a", "4c")));
+        assertThat(journal.pendingCount(), is(0));
+        journal.close();
+    }
+
+    private static List<Object> listOf(Object... values) {
+        List<Object> list = new ArrayList<>();
+        for (Object value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static class StalledWebSocket implements okhttp3.WebSocket {
+
+        private final Request request;
+        private final WebSocketListener listener;
+        private boolean open;
+        final List<Object> sent = Collections.synchronizedList(new ArrayList<>());
+
+        StalledWebSocket(Request request, WebSocketListener listener) {
+            this.request = request;
+            this.listener = listener;
+        }
+
+        synchronized void resume() {
+            if (this.open) return;
+            this.open = true;
+            Response response = new Response.Builder()
+                    .request(this.request)
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(101)
+                    .message("Switching Protocols")
+                    .build();
+            this.listener.onOpen(this, response);
+            this.listener.onMessage(this, "0{\"sid\":\"sid\",\"upgrades\":[],\"pingInterval\":3600000,\"pingTimeout\":3600000}");
+        }
+
+        void fail() {
+            this.listener.onFailure(this, new IOException("stalled"), null);
+        }
+
+        @Override
+        public Request request() {
+            return this.request;
+        }
+
+        @Override
+        public long queueSize() {
+            return 0;
+        }
+
+        @Override
+        public boolean send(String text) {
+            this.sent.add(text);
+            return true;
+        }
+
+        @Override
+        public boolean send(ByteString bytes) {
+            return true;
+        }
+
+        @Override
+        public boolean close(int code, String reason) {
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package io.socket.engineio.client.compression;
+
+import io.socket.engineio.client.MessageCodec;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+@RunWith(JUnit4.class)
+public class DictionaryCodecTest {
+
+    static final MessageCodec<String> TEXT = new MessageCodec<String>() {
+        @Override
+        public void encode(String message, BufferedSink sink) throws IOException {
+            sink.writeUtf8(message);
+        }
+
+        @Override
+        public String decode(BufferedSource source) throws IOException {
+            return source.readUtf8();
+        }
+    };
+
+    static final MessageCodec<byte[]> BYTES = new MessageCodec<byte[]>() {
+        @Override
+        public boolean isBinary() {
+            return true;
+        }
+
+        @Override
+        public void encode(byte[] message, BufferedSink sink) throws IOException {
+            sink.write(message);
+        }
+
+        @Override
+        public byte[] decode(BufferedSource source) throws IOException {
+            return source.readByteArray();
+        }
+    };
+
+    static String message(Random random) {
+        return "{\"type\":\"reading\",\"sensorId\":\"sensor-" + random.nextInt(100)
+                + "\",\"timestamp\":" + (1700000000000L + random.nextInt(1000000))
+                + ",\"temperature\":" + random.nextInt(40) + ",\"humidity\":" + random.nextInt(100)
+                + ",\"status\":\"ok\"}";
+    }
+
+    @Test
+    public void compressWithTrainedDictionary() throws IOException {
+        Random random = new Random(42);
+        DictionaryTrainer trainer = new DictionaryTrainer(100);
+        for (int i = 0; i < 500; i++) {
+            trainer.offer(message(random).getBytes(StandardCharsets.UTF_8));
+        }
+        assertThat(trainer.sampleCount(), is(100));
+        CompressionDictionary dictionary = trainer.train(1, 1024);
+        assertThat(dictionary.version(), is(1));
+        assertThat(dictionary.data().length, is(lessThan(1025)));
+
+        DictionaryCodec<String> codec = new DictionaryCodec<>(TEXT, dictionary);
+        String message = message(random);
+        Buffer encoded = new Buffer();
+        codec.encode(message, encoded);
+        assertThat(encoded.getByte(0) & 0xff, is(DictionaryCodec.MARKER));
+        assertThat(encoded.size() * 2, is(lessThan((long) message.length())));
+        assertThat(codec.decode(encoded), is(message));
+    }
+
+    @Test
+    public void sendIncompressibleMessagesAsIs() throws IOException {
+        DictionaryCodec<String> codec = new DictionaryCodec<>(TEXT, new CompressionDictionary(0, "unrelated".getBytes()));
+        Buffer encoded = new Buffer();
+        codec.encode("x", encoded);
+        assertThat(encoded.readUtf8(), is("x"));
+        assertThat(codec.decode(new Buffer().writeUtf8("plain")), is("plain"));
+        assertThat(codec.decode(new Buffer()), is(""));
+    }
+
+    @Test
+    public void decodeWithPreviousDictionaries() throws IOException {
+        String message = "{\"sensorId\":\"sensor-1\",\"status\":\"ok\"}";
+        CompressionDictionary first = new CompressionDictionary(1, "{\"sensorId\":\"sensor-\",\"status\":\"ok\"}".getBytes());
+        CompressionDictionary second = new CompressionDictionary(2, "\"status\":\"ok\"".getBytes());
+        DictionaryCodec<String> codec = new DictionaryCodec<>(TEXT, first);
+        Buffer encoded = new Buffer();
+        codec.encode(message, encoded);
+
+        codec.useDictionary(second);
+        assertThat(codec.decode(encoded), is(message));
+        codec.encode(message, encoded);
+        assertThat(encoded.getByte(2), is((byte) 2));
+        assertThat(codec.decode(encoded), is(message));
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void rejectUnknownDictionary() throws IOException {
+        CompressionDictionary dictionary = new CompressionDictionary(7, "{\"status\":\"ok\"}".getBytes());
+        Buffer encoded = new Buffer();
+        new DictionaryCodec<>(TEXT, dictionary).encode("{\"status\":\"ok\"}", encoded);
+        new DictionaryCodec<>(TEXT, null).decode(encoded);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void rejectOversizedMessages() throws IOException {
+        DictionaryCodec.Options opts = new DictionaryCodec.Options();
+        opts.maxMessageSize = 100;
+        CompressionDictionary dictionary = new CompressionDictionary(0, "aaaa".getBytes());
+        DictionaryCodec<String> codec = new DictionaryCodec<>(TEXT, dictionary, opts);
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 1000; i++) message.append('a');
+        Buffer encoded = new Buffer();
+        codec.encode(message.toString(), encoded);
+        codec.decode(encoded);
+    }
+
+    @Test
+    public void sampleSentMessages() throws IOException {
+        DictionaryCodec.Options opts = new DictionaryCodec.Options();
+        opts.trainer = new DictionaryTrainer();
+        opts.sampleRate = 1;
+        DictionaryCodec<String> codec = new DictionaryCodec<>(TEXT, null, opts);
+        Buffer encoded = new Buffer();
+        codec.encode("hello", encoded);
+        assertThat(encoded.readUtf8(), is("hello"));
+        assertThat(opts.trainer.sampleCount(), is(1));
+    }
+
+    @Test
+    public void sendUncompressedTextAsText() throws IOException {
+        DictionaryCodec<String> codec = new DictionaryCodec<>(TEXT, null);
+        Buffer encoded = new Buffer();
+        codec.encode("hello", encoded);
+        assertThat(codec.isBinary(encoded), is(false));
+
+        codec.useDictionary(new CompressionDictionary(1, "{\"status\":\"ok\"}".getBytes()));
+        encoded = new Buffer();
+        codec.encode("{\"status\":\"ok\",\"status\":\"ok\"}", encoded);
+        assertThat(codec.isBinary(encoded), is(true));
+        codec.close();
+    }
+
+    @Test
+    public void escapeUncompressedMarker() throws IOException {
+        byte[] message = {(byte) 0xff, 1, 2};
+        for (CompressionDictionary dictionary : new CompressionDictionary[] {null, new CompressionDictionary(1, "unrelated".getBytes())}) {
+            DictionaryCodec<byte[]> codec = new DictionaryCodec<>(BYTES, dictionary);
+            Buffer encoded = new Buffer();
+            codec.encode(message, encoded);
+            assertThat(encoded.size(), is(6L));
+            assertThat(codec.isBinary(encoded), is(true));
+            assertThat(codec.decode(encoded), is(message));
+            codec.close();
+        }
+    }
+}
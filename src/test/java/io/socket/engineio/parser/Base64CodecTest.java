@@ -0,0 +1,112 @@
+package io.socket.engineio.parser;
+
+import okio.Buffer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+@RunWith(JUnit4.class)
+public class Base64CodecTest {
+
+    @Test
+    public void encodeLikeTheJdk() throws IOException {
+        Random random = new Random(42);
+        for (int length : new int[] {0, 1, 2, 3, 4, 5, 3071, 3072, 3073, 10000}) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            String expected = Base64.getEncoder().encodeToString(data);
+
+            Buffer sink = new Buffer();
+            Base64Codec.encode(data, sink);
+            assertThat(sink.readUtf8(), is(expected));
+            assertThat(Base64Codec.encodedLength(length), is((long) expected.length()));
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(length);
+            direct.put(data);
+            direct.flip();
+            Base64Codec.encode(direct, sink);
+            assertThat(sink.readUtf8(), is(expected));
+            assertThat(direct.position(), is(0));
+        }
+    }
+
+    @Test
+    public void decodeLikeTheJdk() throws IOException {
+        Random random = new Random(42);
+        for (int length : new int[] {0, 1, 2, 3, 4, 5, 3071, 3072, 3073, 10000}) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            String encoded = Base64.getEncoder().encodeToString(data);
+
+            assertThat(Base64Codec.decode(encoded, 0, encoded.length()), is(data));
+            Buffer source = new Buffer().writeUtf8(encoded).writeUtf8("rest");
+            assertThat(Base64Codec.decode(source, encoded.length()), is(data));
+            assertThat(source.readUtf8(), is("rest"));
+        }
+    }
+
+    @Test
+    public void decodeWithoutPadding() throws IOException {
+        assertThat(Base64Codec.decode("AQ", 0, 2), is(new byte[] {1}));
+        assertThat(Base64Codec.decode("AQI", 0, 3), is(new byte[] {1, 2}));
+        assertThat(Base64Codec.decode(new Buffer().writeUtf8("AQI"), 3), is(new byte[] {1, 2}));
+    }
+
+    @Test
+    public void decodeIntoPooledBuffers() throws IOException {
+        BufferPool pool = new BufferPool(true);
+        ByteBuffer decoded = Base64Codec.decode(new Buffer().writeUtf8("AQIDBA=="), 8, pool);
+        assertThat(decoded.isDirect(), is(true));
+        assertThat(decoded.remaining(), is(4));
+        assertThat(decoded.get(3), is((byte) 4));
+
+        pool.release(decoded);
+        ByteBuffer again = Base64Codec.decode("bAQID", 1, 5, pool);
+        assertThat(again, is(sameInstance(decoded)));
+        assertThat(again.remaining(), is(3));
+        assertThat(again.get(2), is((byte) 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectIllegalCharacters() {
+        Base64Codec.decode("AQ?D", 0, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectNonAsciiCharacters() {
+        // U+0141 must not be mistaken for 'A'
+        Base64Codec.decode("AQŁD", 0, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectTruncatedData() throws IOException {
+        Base64Codec.decode(new Buffer().writeUtf8("AQIDB"), 5);
+    }
+
+    @Test
+    public void encodeAndDecodeBuffers() throws IOException {
+        byte[] data = new byte[5000];
+        new Random(42).nextBytes(data);
+        String expected = Base64.getEncoder().encodeToString(data);
+
+        Buffer content = new Buffer().write(data);
+        Buffer sink = new Buffer();
+        Base64Codec.encode(content, sink);
+        assertThat(content.size(), is(5000L));
+        assertThat(sink.readUtf8(), is(expected));
+
+        Buffer decoded = new Buffer();
+        Base64Codec.decode(new Buffer().writeUtf8(expected), expected.length(), decoded);
+        assertThat(decoded.readByteArray(), is(data));
+        Base64Codec.decode(expected, 0, expected.length(), decoded);
+        assertThat(decoded.readByteArray(), is(data));
+    }
+}
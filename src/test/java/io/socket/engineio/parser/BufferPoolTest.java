@@ -0,0 +1,69 @@
+package io.socket.engineio.parser;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+@RunWith(JUnit4.class)
+public class BufferPoolTest {
+
+    @Test
+    public void roundUpToSizeClasses() {
+        BufferPool pool = new BufferPool(64, 1024, 2, false);
+        ByteBuffer small = pool.acquire(1);
+        assertThat(small.capacity(), is(64));
+        assertThat(small.limit(), is(1));
+        ByteBuffer medium = pool.acquire(65);
+        assertThat(medium.capacity(), is(128));
+        assertThat(pool.acquire(1024).capacity(), is(1024));
+    }
+
+    @Test
+    public void reuseReleasedBuffers() {
+        BufferPool pool = new BufferPool(64, 1024, 1, true);
+        ByteBuffer buffer = pool.acquire(100);
+        assertThat(buffer.isDirect(), is(true));
+        buffer.position(10);
+        pool.release(buffer);
+        pool.release(ByteBuffer.allocateDirect(128));
+        assertThat(pool.size(), is(1));
+
+        ByteBuffer again = pool.acquire(128);
+        assertThat(again, is(sameInstance(buffer)));
+        assertThat(again.position(), is(0));
+        assertThat(again.limit(), is(128));
+        assertThat(pool.size(), is(0));
+    }
+
+    @Test
+    public void notPoolOversizedBuffers() {
+        BufferPool pool = new BufferPool(64, 1024, 4, false);
+        ByteBuffer large = pool.acquire(1025);
+        assertThat(large.capacity(), is(1025));
+        pool.release(large);
+        pool.release(ByteBuffer.allocate(2048));
+        assertThat(pool.size(), is(0));
+    }
+
+    @Test
+    public void releaseBufferWithPacket() {
+        BufferPool pool = new BufferPool();
+        Parser.Options opts = new Parser.Options();
+        opts.bufferPool = pool;
+        BinaryPacket packet = (BinaryPacket) Parser.decodeBase64Packet("bAQID", opts);
+        assertThat(packet.data, is(nullValue()));
+        assertThat(packet.length(), is(3));
+
+        packet.retain();
+        assertThat(packet.release(), is(false));
+        assertThat(pool.size(), is(0));
+        assertThat(packet.release(), is(true));
+        assertThat(pool.size(), is(1));
+        assertThat(packet.buffer(), is(nullValue()));
+    }
+}
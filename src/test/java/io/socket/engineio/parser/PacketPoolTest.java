@@ -0,0 +1,87 @@
+package io.socket.engineio.parser;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+@RunWith(JUnit4.class)
+public class PacketPoolTest {
+
+    @Test
+    public void recycleReleasedPackets() {
+        PacketPool pool = new PacketPool(4, false);
+        TextPacket first = pool.text(PacketType.MESSAGE, "a");
+        assertThat(first.isPooled(), is(true));
+        assertThat(first.release(), is(true));
+        assertThat(first.data, is(nullValue()));
+        assertThat(pool.size(), is(1));
+
+        TextPacket second = pool.text(PacketType.PONG);
+        assertThat(second, is(sameInstance(first)));
+        assertThat(second.packetType(), is(PacketType.PONG));
+        assertThat(second.type, is(Packet.PONG));
+        assertThat(second.body(), is(nullValue()));
+        assertThat(pool.size(), is(0));
+    }
+
+    @Test
+    public void recycleBinaryPackets() {
+        PacketPool pool = new PacketPool(4, false);
+        BinaryPacket first = pool.binary(new byte[] {1});
+        first.release();
+        BinaryPacket second = pool.binary(new byte[] {2});
+        assertThat(second, is(sameInstance(first)));
+        assertThat(second.data, is(new byte[] {2}));
+        assertThat(second.packetType(), is(PacketType.MESSAGE));
+    }
+
+    @Test
+    public void keepRetainedPackets() {
+        PacketPool pool = new PacketPool(4, false);
+        TextPacket packet = pool.text(PacketType.MESSAGE, new StringSlice("4abc", 1, 4));
+        packet.retain();
+        assertThat(packet.release(), is(false));
+        assertThat(packet.text(), is("abc"));
+        assertThat(packet.release(), is(true));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failOnDoubleRelease() {
+        PacketPool pool = new PacketPool(4, false);
+        TextPacket packet = pool.text(PacketType.MESSAGE, "a");
+        packet.release();
+        packet.release();
+    }
+
+    @Test
+    public void boundIdlePackets() {
+        PacketPool pool = new PacketPool(1, true);
+        TextPacket first = pool.text(PacketType.MESSAGE, "a");
+        TextPacket second = pool.text(PacketType.MESSAGE, "b");
+        first.release();
+        second.release();
+        assertThat(pool.size(), is(1));
+    }
+
+    @Test
+    public void ignoreUnpooledPackets() {
+        TextPacket packet = new TextPacket(PacketType.MESSAGE, "a");
+        assertThat(packet.isPooled(), is(false));
+        assertThat(packet.retain(), is(sameInstance((Packet<String>) packet)));
+        assertThat(packet.release(), is(false));
+        assertThat(packet.data, is("a"));
+    }
+
+    @Test
+    public void decodeIntoPool() {
+        Parser.Options opts = new Parser.Options();
+        opts.pool = new PacketPool(4, false);
+        Packet<?> packet = Parser.decodePacket("4a", opts);
+        assertThat(packet.isPooled(), is(true));
+        packet.release();
+        assertThat(Parser.decodePacket("2", opts), is(sameInstance(packet)));
+    }
+}
@@ -1,12 +1,19 @@
 package io.socket.engineio.parser;
 
+import okio.Buffer;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
 import static io.socket.engineio.parser.Parser.*;
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 @RunWith(JUnit4.class)
 public class ParserTest {
@@ -268,4 +275,450 @@ public class ParserTest {
             return true;
         }));
     }
+
+    @Test
+    public void decodePayloadFromSource() throws IOException {
+        final byte[] binary = new byte[] {0, 1, 2, 3};
+        encodePayload(new Packet[]{
+                new Packet<>(Packet.MESSAGE, "€€€"),
+                new Packet<>(Packet.MESSAGE, binary),
+                new Packet<String>(Packet.PING),
+        }, encoded -> {
+            final List<Packet> packets = new ArrayList<>();
+            final List<Integer> totals = new ArrayList<>();
+            try {
+                decodePayload(new Buffer().writeUtf8(encoded), (DecodePayloadCallback) (packet, index, total) -> {
+                    assertThat(index, is(packets.size()));
+                    packets.add(packet);
+                    totals.add(total);
+                    return true;
+                });
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            assertThat(packets.size(), is(3));
+            assertThat((String) packets.get(0).data, is("€€€"));
+            assertThat((byte[]) packets.get(1).data, is(binary));
+            assertThat(packets.get(2).type, is(Packet.PING));
+            assertThat(totals.get(0), is(-1));
+            assertThat(totals.get(1), is(-1));
+            assertThat(totals.get(2), is(3));
+        });
+    }
+
+    @Test
+    public void decodePayloadFromSourceStopsWhenCallbackReturnsFalse() throws IOException {
+        final int[] count = new int[] {0};
+        decodePayload(new Buffer().writeUtf8("4a\u001e4b\u001e4c"), (packet, index, total) -> {
+            count[0]++;
+            return false;
+        });
+        assertThat(count[0], is(1));
+    }
+
+    @Test
+    public void decodePayloadFromSourceEndingWithSeparator() throws IOException {
+        final List<Integer> totals = new ArrayList<>();
+        decodePayload(new Buffer().writeUtf8("4a\u001e4b\u001e"), (packet, index, total) -> {
+            assertThat(packet.type, is(Packet.MESSAGE));
+            totals.add(total);
+            return true;
+        });
+        assertThat(totals.size(), is(2));
+        assertThat(totals.get(0), is(-1));
+        assertThat(totals.get(1), is(2));
+    }
+
+    @Test
+    public void decodePayloadFromSourceBadFormat() throws IOException {
+        decodePayload(new Buffer(), (packet, index, total) -> {
+            assertThat(packet.type, is(Packet.ERROR));
+            assertThat(packet.data, is(ERROR_DATA));
+            return true;
+        });
+        decodePayload(new Buffer().writeUtf8("4a\u001e))"), (packet, index, total) -> {
+            if (index == 0 && Packet.MESSAGE.equals(packet.type)) return true;
+            assertThat(packet.type, is(Packet.ERROR));
+            assertThat(packet.data, is(ERROR_DATA));
+            return true;
+        });
+    }
+
+    @Test
+    public void encodePayloadToSink() throws IOException {
+        final Packet[] packets = new Packet[] {
+                new Packet<>(Packet.MESSAGE, "€€€"),
+                new Packet<>(Packet.MESSAGE, new byte[] {1}),
+                new Packet<>(Packet.MESSAGE, new byte[] {1, 2}),
+                new Packet<>(Packet.MESSAGE, new byte[] {1, 2, 3, (byte) 0xff}),
+                new Packet<>(Packet.MESSAGE, 1),
+                new Packet<String>(Packet.PING),
+        };
+        Buffer sink = new Buffer();
+        encodePayload(packets, sink);
+        assertThat(encodedPayloadLength(packets), is(sink.size()));
+        encodePayload(packets, data -> assertThat(sink.readUtf8(), is(data)));
+    }
+
+    @Test
+    public void encodeEmptyPayloadToSink() throws IOException {
+        Buffer sink = new Buffer();
+        encodePayload(new Packet[] {}, sink);
+        assertThat(encodedPayloadLength(new Packet[] {}), is(sink.size()));
+        assertThat(sink.readUtf8(), is("0:"));
+    }
+
+    @Test
+    public void decodeAsTypedPackets() {
+        encodePacket(new TextPacket(PacketType.PONG, "probe"), (EncodeCallback<String>) data -> {
+            assertThat(data, is("3probe"));
+            Packet<String> p = decodePacket(data);
+            assertThat(p, instanceOf(TextPacket.class));
+            assertThat(p.packetType(), is(PacketType.PONG));
+            assertThat(p.type, is(Packet.PONG));
+        });
+        assertThat(decodeBase64Packet("bAQI="), instanceOf(BinaryPacket.class));
+        assertThat(decodePacket(new byte[] {1}).packetType(), is(PacketType.MESSAGE));
+    }
+
+    @Test
+    public void resolvePacketTypeOfGenericPackets() {
+        Packet<String> p = new Packet<>(Packet.PING, "1");
+        assertThat(p.packetType(), is(PacketType.PING));
+        p.type = new String(Packet.CLOSE);
+        assertThat(p.packetType(), is(PacketType.CLOSE));
+        p.type = "unknown";
+        assertThat(p.packetType(), is(nullValue()));
+    }
+
+    @Test
+    public void decodeLazily() {
+        Parser.Options opts = new Parser.Options();
+        opts.lazy = true;
+        final String frame = "4hello world";
+        TextPacket p = (TextPacket) decodePacket(frame, opts);
+        assertThat(p.packetType(), is(PacketType.MESSAGE));
+        assertThat(p.data, is(nullValue()));
+        assertThat(p.body(), instanceOf(StringSlice.class));
+        assertThat(p.body().length(), is(11));
+        assertThat(p.body().subSequence(0, 5).toString(), is("hello"));
+        assertThat(p.text(), is("hello world"));
+        assertThat(p.data, is("hello world"));
+
+        TextPacket ping = (TextPacket) decodePacket("2probe", opts);
+        assertThat(ping.data, is("probe"));
+    }
+
+    @Test
+    public void encodeLazilyDecodedPacket() throws IOException {
+        Parser.Options opts = new Parser.Options();
+        opts.lazy = true;
+        final String frame = "4€ and more";
+        Packet<?> p = decodePacket(frame, opts);
+        encodePacket(p, (EncodeCallback<String>) data -> assertThat(data == frame, is(true)));
+        encodePacket(new TextPacket(PacketType.MESSAGE, new StringSlice(frame, 2, frame.length())),
+                (EncodeCallback<String>) data -> assertThat(data, is("4 and more")));
+
+        Packet[] packets = new Packet[] {p, new TextPacket(PacketType.MESSAGE, new StringSlice(frame, 1, 2))};
+        Buffer sink = new Buffer();
+        encodePayload(packets, sink);
+        assertThat(encodedPayloadLength(packets), is(sink.size()));
+        assertThat(sink.readUtf8(), is("4€ and more\u001e4€"));
+    }
+
+    @Test
+    public void decodeBinaryFromSourceIntoPooledBuffers() throws IOException {
+        final BufferPool pool = new BufferPool();
+        Parser.Options opts = new Parser.Options();
+        opts.bufferPool = pool;
+        final List<Packet> packets = new ArrayList<>();
+        decodePayload(new Buffer().writeUtf8("bAQID\u001e4€\u001ebBAU="), opts, (DecodePayloadCallback) (packet, index, total) -> {
+            packets.add(packet);
+            return true;
+        });
+        assertThat(packets.size(), is(3));
+        assertThat(((BinaryPacket) packets.get(0)).bytes(), is(new byte[] {1, 2, 3}));
+        assertThat((String) packets.get(1).data, is("€"));
+        assertThat(((BinaryPacket) packets.get(2)).buffer().remaining(), is(2));
+
+        Packet[] encoded = new Packet[] {packets.get(2), packets.get(0)};
+        Buffer sink = new Buffer();
+        encodePayload(encoded, sink);
+        assertThat(encodedPayloadLength(encoded), is(sink.size()));
+        assertThat(sink.readUtf8(), is("bBAU=\u001ebAQID"));
+
+        packets.get(0).release();
+        packets.get(2).release();
+        assertThat(pool.size(), is(2));
+    }
+
+    @Test
+    public void decodeBadBase64AsError() throws IOException {
+        assertThat(decodeBase64Packet("bA?").type, is(Packet.ERROR));
+        decodePayload(new Buffer().writeUtf8("4a\u001eb?"), (packet, index, total) -> {
+            if (index == 0 && Packet.MESSAGE.equals(packet.type)) return true;
+            assertThat(packet.type, is(Packet.ERROR));
+            return true;
+        });
+    }
+
+    @Test
+    public void encodeBufferPacket() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] {0, 1, 2, 3});
+        buffer.position(1);
+        encodePacket(new BinaryPacket(buffer), (EncodeCallback<byte[]>) data -> assertThat(data, is(new byte[] {1, 2, 3})));
+    }
+
+    @Test
+    public void decodeRawMessages() throws IOException {
+        Parser.Options opts = new Parser.Options();
+        opts.raw = true;
+        BufferPacket text = (BufferPacket) decodePacket("4€", opts);
+        assertThat(text.isBinary(), is(false));
+        assertThat(text.body().readUtf8(), is("€"));
+        assertThat(text.data.size(), is(3L));
+        assertThat(decodePacket("2probe", opts).data, is((Object) "probe"));
+
+        final List<Packet> packets = new ArrayList<>();
+        decodePayload(new Buffer().writeUtf8("4€\u001ebAQID\u001e4"), opts, (DecodePayloadCallback) (packet, index, total) -> {
+            packets.add(packet);
+            return true;
+        });
+        assertThat(((BufferPacket) packets.get(0)).body().readUtf8(), is("€"));
+        assertThat(((BufferPacket) packets.get(1)).isBinary(), is(true));
+        assertThat(((BufferPacket) packets.get(1)).body().readByteArray(), is(new byte[] {1, 2, 3}));
+        assertThat(((BufferPacket) packets.get(2)).data.size(), is(0L));
+
+        BufferPacket binary = (BufferPacket) decodePacket(new byte[] {4, 5}, opts);
+        assertThat(binary.isBinary(), is(true));
+        assertThat(binary.body().readByteArray(), is(new byte[] {4, 5}));
+    }
+
+    @Test
+    public void encodeBufferPackets() throws IOException {
+        BufferPacket text = new BufferPacket(new Buffer().writeUtf8("€"), false);
+        BufferPacket binary = new BufferPacket(new Buffer().write(new byte[] {1, 2, 3, 4}), true);
+        encodePacket(text, (EncodeCallback<String>) data -> assertThat(data, is("4€")));
+        encodePacket(binary, (EncodeCallback<okio.ByteString>) data -> assertThat(data.toByteArray(), is(new byte[] {1, 2, 3, 4})));
+
+        Packet[] packets = new Packet[] {text, binary};
+        Buffer sink = new Buffer();
+        encodePayload(packets, sink);
+        assertThat(encodedPayloadLength(packets), is(sink.size()));
+        assertThat(sink.readUtf8(), is("4€\u001ebAQIDBA=="));
+        encodePayload(packets, data -> assertThat(data, is("4€\u001ebAQIDBA==")));
+        assertThat(text.data.size(), is(3L));
+        assertThat(binary.data.size(), is(4L));
+    }
+
+    @Test
+    public void encodePreEncodedPackets() throws IOException {
+        PreEncodedPacket text = new PreEncodedPacket("€");
+        PreEncodedPacket binary = new PreEncodedPacket(okio.ByteString.of(new byte[] {1, 2, 3, 4}));
+        encodePacket(text, (EncodeCallback<String>) data -> assertThat(data, is("4€")));
+        encodePacket(binary, (EncodeCallback<okio.ByteString>) data -> assertThat(data.toByteArray(), is(new byte[] {1, 2, 3, 4})));
+        assertThat(text.frame(), sameInstance(text.frame()));
+        assertThat(binary.payloadFrame(), sameInstance(binary.payloadFrame()));
+
+        Packet[] packets = new Packet[] {text, binary, text};
+        Buffer sink = new Buffer();
+        encodePayload(packets, sink);
+        assertThat(encodedPayloadLength(packets), is(sink.size()));
+        assertThat(sink.readUtf8(), is("4€\u001ebAQIDBA==\u001e4€"));
+        encodePayload(packets, data -> assertThat(data, is("4€\u001ebAQIDBA==\u001e4€")));
+    }
+
+    @Test
+    public void decodePayloadWithinLimits() throws IOException {
+        Parser.Options opts = new Parser.Options();
+        opts.maxMessageSize = 3;
+        opts.maxPayloadSize = 15;
+        final List<Packet> packets = new ArrayList<>();
+        decodePayload(new Buffer().writeUtf8("4abc\u001ebAQID\u001e4€"), opts, (DecodePayloadCallback) (packet, index, total) -> {
+            packets.add(packet);
+            return true;
+        });
+        assertThat(packets.size(), is(3));
+    }
+
+    @Test
+    public void rejectLargeMessages() throws IOException {
+        Parser.Options opts = new Parser.Options();
+        opts.maxMessageSize = 3;
+        for (String payload : new String[] {"4abcd", "4a\u001e4abcd\u001e4a", "bAQIDBA==", "4€€"}) {
+            try {
+                decodePayload(new Buffer().writeUtf8(payload), opts, (packet, index, total) -> true);
+                fail(payload);
+            } catch (SizeLimitExceededException e) {
+                assertThat(e.limit, is(3L));
+                assertThat(e.payload, is(false));
+            }
+        }
+    }
+
+    @Test
+    public void abortEndlessPayloads() throws IOException {
+        Parser.Options opts = new Parser.Options();
+        opts.maxPayloadSize = 1024 * 1024;
+        // an endless payload of small messages
+        okio.Source source = new okio.Source() {
+            @Override
+            public long read(Buffer sink, long byteCount) {
+                sink.writeUtf8("4abc\u001e");
+                return 5;
+            }
+
+            @Override
+            public okio.Timeout timeout() {
+                return okio.Timeout.NONE;
+            }
+
+            @Override
+            public void close() {}
+        };
+        final int[] count = new int[1];
+        try {
+            decodePayload(okio.Okio.buffer(source), opts, (packet, index, total) -> ++count[0] > 0);
+            fail();
+        } catch (SizeLimitExceededException e) {
+            assertThat(e.payload, is(true));
+        }
+        assertThat(count[0], is(1024 * 1024 / 5));
+
+        opts.maxPayloadSize = 0;
+        opts.maxMessageSize = 1024;
+        okio.Source endless = new okio.Source() {
+            @Override
+            public long read(Buffer sink, long byteCount) {
+                sink.writeUtf8("aaaaa");
+                return 5;
+            }
+
+            @Override
+            public okio.Timeout timeout() {
+                return okio.Timeout.NONE;
+            }
+
+            @Override
+            public void close() {}
+        };
+        try {
+            decodePayload(okio.Okio.buffer(endless), opts, (packet, index, total) -> true);
+            fail();
+        } catch (SizeLimitExceededException e) {
+            assertThat(e.payload, is(false));
+        }
+    }
+
+    @Test
+    public void encodeBinaryPayloads() throws IOException {
+        byte[] data = new byte[10];
+        Packet[] packets = new Packet[] {
+                new TextPacket(PacketType.MESSAGE, "hé"),
+                new BinaryPacket(new byte[] {1, 2, 3}),
+                new BufferPacket(new Buffer().write(data), true),
+                new PreEncodedPacket(okio.ByteString.of((byte) 7)),
+        };
+        Buffer sink = new Buffer();
+        encodeBinaryPayload(packets, sink);
+        assertThat(encodedBinaryPayloadLength(packets), is(sink.size()));
+        assertThat(sink.readByteArray(7), is(new byte[] {0, 4, (byte) 255, '4', 'h', (byte) 0xc3, (byte) 0xa9}));
+        assertThat(sink.readByteArray(7), is(new byte[] {1, 4, (byte) 255, 4, 1, 2, 3}));
+        assertThat(sink.readByteArray(5), is(new byte[] {1, 1, 1, (byte) 255, 4}));
+        assertThat(sink.readByteArray(10), is(data));
+        assertThat(sink.readByteArray(), is(new byte[] {1, 2, (byte) 255, 4, 7}));
+    }
+
+    @Test
+    public void computeEncodedLengthOfPacketsInPayloads() throws IOException {
+        Packet[] packets = new Packet[] {
+                new TextPacket(PacketType.MESSAGE, "hé"),
+                new BinaryPacket(new byte[] {1, 2, 3}),
+                new PreEncodedPacket("€"),
+        };
+        Parser.Options opts = new Parser.Options();
+        long length = 0;
+        for (Packet packet : packets) {
+            length += encodedPayloadLength(packet, opts);
+        }
+        // the separator after the last packet is counted
+        assertThat(length, is(encodedPayloadLength(packets) + 1));
+
+        opts.protocol = PROTOCOL_V3;
+        length = 0;
+        for (Packet packet : packets) {
+            length += encodedPayloadLength(packet, opts);
+        }
+        assertThat(length, is(encodedBinaryPayloadLength(packets)));
+    }
+
+    @Test
+    public void decodeBinaryPayloads() throws IOException {
+        Parser.Options opts = new Parser.Options();
+        opts.protocol = PROTOCOL_V3;
+        Buffer payload = new Buffer();
+        encodeBinaryPayload(new Packet[] {
+                new TextPacket(PacketType.MESSAGE, "hé"),
+                new BinaryPacket(new byte[] {1, 2, 3}),
+                new TextPacket(PacketType.PONG),
+        }, payload);
+
+        final List<Packet> packets = new ArrayList<>();
+        decodePayload(payload, opts, (DecodePayloadCallback) (packet, index, total) -> {
+            packets.add(packet);
+            return true;
+        });
+        assertThat(packets.size(), is(3));
+        assertThat(packets.get(0).data, is((Object) "hé"));
+        assertThat(packets.get(1).data, is((Object) new byte[] {1, 2, 3}));
+        assertThat(packets.get(2).packetType(), is(PacketType.PONG));
+
+        Parser.DecodePayloadCallback fail = (packet, index, total) -> {
+            assertThat(packet.data, is((Object) ERROR_DATA));
+            return true;
+        };
+        decodePayload(new Buffer().write(new byte[] {1, 2, (byte) 255, 2, 7}), opts, fail);
+        decodePayload(new Buffer().write(new byte[] {0, 12, (byte) 255}), opts, fail);
+    }
+
+    @Test
+    public void decodeTextPayloadsOfProtocolV3() throws IOException {
+        Parser.Options opts = new Parser.Options();
+        opts.protocol = PROTOCOL_V3;
+        for (final boolean streaming : new boolean[] {false, true}) {
+            final List<Packet> packets = new ArrayList<>();
+            // lengths are counted in UTF-16 chars
+            String payload = "3:4€€6:b4AQID3:4\uD83D\uDE00";
+            DecodePayloadCallback callback = (packet, index, total) -> {
+                packets.add(packet);
+                return true;
+            };
+            if (streaming) {
+                decodePayload(new Buffer().writeUtf8(payload), opts, callback);
+            } else {
+                decodePayload(payload, opts, callback);
+            }
+            assertThat(packets.size(), is(3));
+            assertThat(packets.get(0).data, is((Object) "€€"));
+            assertThat(packets.get(1).data, is((Object) new byte[] {1, 2, 3}));
+            assertThat(packets.get(2).data, is((Object) "\uD83D\uDE00"));
+        }
+
+        decodePayload("5:4abc", opts, (packet, index, total) -> {
+            assertThat(packet.data, is((Object) ERROR_DATA));
+            return true;
+        });
+    }
+
+    @Test
+    public void encodeAndDecodeBinaryFramesOfProtocolV3() {
+        Parser.Options opts = new Parser.Options();
+        opts.protocol = PROTOCOL_V3;
+        encodePacket(new BinaryPacket(new byte[] {1, 2}), opts,
+                (EncodeCallback<okio.ByteString>) data -> assertThat(data.toByteArray(), is(new byte[] {4, 1, 2})));
+        encodePacket(new TextPacket(PacketType.MESSAGE, "hi"), opts,
+                (EncodeCallback<String>) data -> assertThat(data, is("4hi")));
+        assertThat(decodePacket(new byte[] {4, 1, 2}, opts).data, is((Object) new byte[] {1, 2}));
+        assertThat(decodePacket(new byte[] {1, 2}, opts).data, is((Object) ERROR_DATA));
+    }
 }
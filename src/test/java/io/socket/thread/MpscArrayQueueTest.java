@@ -0,0 +1,93 @@
+package io.socket.thread;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+@RunWith(JUnit4.class)
+public class MpscArrayQueueTest {
+
+    @Test
+    public void offerAndPoll() {
+        MpscArrayQueue<Integer> queue = new MpscArrayQueue<>(3);
+        assertThat(queue.capacity(), is(4));
+        assertThat(queue.isEmpty(), is(true));
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(queue.offer(i), is(true));
+        }
+        assertThat(queue.offer(4), is(false));
+        assertThat(queue.size(), is(4));
+
+        assertThat(queue.poll(), is(0));
+        assertThat(queue.offer(4), is(true));
+        for (int i = 1; i < 5; i++) {
+            assertThat(queue.poll(), is(i));
+        }
+        assertThat(queue.poll(), is(nullValue()));
+        assertThat(queue.isEmpty(), is(true));
+    }
+
+    @Test
+    public void drain() {
+        MpscArrayQueue<Integer> queue = new MpscArrayQueue<>(8);
+        for (int i = 0; i < 5; i++) {
+            queue.offer(i);
+        }
+
+        List<Integer> drained = new ArrayList<>();
+        assertThat(queue.drain(drained::add), is(5));
+        for (int i = 0; i < 5; i++) {
+            assertThat(drained.get(i), is(i));
+        }
+        assertThat(queue.drain(drained::add), is(0));
+    }
+
+    @Test
+    public void concurrentProducers() throws InterruptedException {
+        final int producers = 4;
+        final int count = 100000;
+        final MpscArrayQueue<int[]> queue = new MpscArrayQueue<>(64);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < count; i++) {
+                    int[] e = new int[] {producer, i};
+                    while (!queue.offer(e)) {
+                        Thread.yield();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+
+        // every element is received once, in the order of its producer
+        int[] next = new int[producers];
+        int received = 0;
+        while (received < producers * count) {
+            int[] e = queue.poll();
+            if (e == null) {
+                Thread.yield();
+                continue;
+            }
+            assertThat(e[1], is(next[e[0]]++));
+            received++;
+        }
+        assertThat(queue.isEmpty(), is(true));
+    }
+}
@@ -13,7 +13,8 @@ if (process.env.SSL) {
 
 const server = engine.attach(http, {
   pingInterval: 500,
-  wsEngine: 'ws'
+  wsEngine: 'ws',
+  allowEIO3: true
 });
 
 const port = process.env.PORT || 3000;